@@ -1,22 +1,43 @@
 package ru.game.client;
 
+import ru.game.protocol.BinaryProtocol;
+import ru.game.protocol.CanvasSnapshot;
+import ru.game.protocol.FrameDecoder;
 import ru.game.protocol.Protocol;
+import ru.game.protocol.StrokePolyline;
+import ru.game.protocol.StrokeSegment;
 
+import javax.imageio.ImageIO;
 import javax.swing.*;
+import java.awt.image.BufferedImage;
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Клиент для игры
  */
 public class GameClient {
+    private static final int MAX_FRAME = 4 * 1024 * 1024; // снимок рисунка больше обычных сообщений
+    // паузы между попытками переподключения, в сумме меньше ожидания на сервере
+    private static final long[] RECONNECT_DELAYS_MS = {500, 1000, 2000, 4000, 8000, 8000};
+
     private Socket socket;
-    private BufferedReader in;
-    private PrintWriter out;
+    private InputStream in;
+    private OutputStream out;
     private String nickname;
     private boolean isDrawer;
     private GameWindow gameWindow; //графический интерфейс клиента
-    private boolean connected;
+    private volatile boolean connected;
+    private String host;
+    private int port;
+    private volatile String sessionToken; // выдает сервер после JOIN, нужен для RESUME
+    private volatile boolean leaving;     // игрок сам отключился, переподключаться не надо
+    private volatile boolean binary;   // сервер ответил PROTO:BIN, рисунок шлем кадрами
+    private final byte[] frameBuffer = new byte[BinaryProtocol.MAX_POLYLINE_FRAME];
+    private final StrokeSegment outSegment = new StrokeSegment();  // исходящий отрезок
+    private final StrokeSegment inSegment = new StrokeSegment();   // входящий отрезок
+    private final StrokePolyline inPolyline = new StrokePolyline(); // входящий кусок штриха
     
     public GameClient(String nickname) {
         this.nickname = nickname;
@@ -32,19 +53,15 @@ public class GameClient {
     public void connect(String host, int port) throws IOException { //адрес и порт сервера
         System.out.println("Подключение к " + host + ":" + port + "...");
         
+        this.host = host;
+        this.port = port;
         try {
-            socket = new Socket(host, port); //устанавливаем соединение
+            openConnection();
             System.out.println("Соединение установлено!");
-
-            //потоки для общения с сервером
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
-            connected = true;
-            
             System.out.println("Потоки созданы, отправляем JOIN...");
             
-            // отправляем JOIN
-            String joinMsg = Protocol.createJoin(nickname);
+            // отправляем JOIN, просим бинарные кадры для рисунка
+            String joinMsg = Protocol.createJoin(nickname, Protocol.FEATURE_BINARY);
             System.out.println("Отправляем: " + joinMsg);
             send(joinMsg);
             
@@ -62,16 +79,62 @@ public class GameClient {
         }
     }
     
-    public void send(String message) {
+    //устанавливаем соединение и создаем потоки для общения с сервером
+    private synchronized void openConnection() throws IOException {
+        socket = new Socket(host, port);
+        in = socket.getInputStream();
+        out = new BufferedOutputStream(socket.getOutputStream());
+        binary = false; // новое соединение договаривается заново
+        connected = true;
+    }
+
+    // пишут поток окна и поток подключения, поэтому synchronized
+    public synchronized void send(String message) {
+        if (connected && out != null) {
+            try {
+                out.write(message.getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("Ошибка отправки: " + e.getMessage());
+            }
+        }
+    }
+
+    //отправляет на сервер данные о рисовании линии, color - номер палитры Protocol.COLORS
+    //если сервер согласился на бинарные кадры, отрезок уходит кадром в ~10 байт
+    public synchronized void sendDraw(int x1, int y1, int x2, int y2, int color) {
+        if (!binary) {
+            send(Protocol.createDraw(x1, y1, x2, y2, Protocol.colorName(color)));
+            return;
+        }
         if (connected && out != null) {
-            out.println(message);
-            out.flush();
+            outSegment.set(x1, y1, x2, y2, color);
+            int length = BinaryProtocol.encodeSegment(outSegment, frameBuffer);
+            try {
+                out.write(frameBuffer, 0, length);
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("Ошибка отправки: " + e.getMessage());
+            }
         }
     }
 
-    //отправляет на сервер данные о рисовании линии
-    public void sendDraw(int x1, int y1, int x2, int y2, String color) {
-        send(Protocol.createDraw(x1, y1, x2, y2, color));
+    //отправляет на сервер несколько точек штриха одним сообщением
+    public synchronized void sendStroke(StrokePolyline polyline) {
+        if (!binary) {
+            send(Protocol.createStroke(polyline));
+            return;
+        }
+        if (connected && out != null) {
+            int length = BinaryProtocol.encodePolyline(polyline, frameBuffer);
+            try {
+                out.write(frameBuffer, 0, length);
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("Ошибка отправки: " + e.getMessage());
+            }
+        }
     }
 
     // отправляет на сервер предположение слова
@@ -84,6 +147,21 @@ public class GameClient {
         send(Protocol.CLEAR + ":");
     }
 
+    //рисующий отменил свой штрих
+    public void sendUndo(int strokeId) {
+        send(Protocol.createUndo(strokeId));
+    }
+
+    //рисующий вернул отмененный штрих
+    public void sendRedo(int strokeId) {
+        send(Protocol.createRedo(strokeId));
+    }
+
+    //просит у сервера первые места рейтинга
+    public void requestLeaderboard() {
+        send(Protocol.createLeaderboard(10));
+    }
+
      //отправляет на сервер сообщение в чат
     public void sendChat(String message) {
         // Отправляем только сообщение, никнейм добавит сервер
@@ -92,20 +170,68 @@ public class GameClient {
 
     //для фонового потока получения сообщений от сервера
     //постоянно читает данные из входящего потока и обрабатывает их
+    //если связь оборвалась посреди игры, переподключается и продолжает читать
     private void receiveMessages() {
-        try {
-            String line;
-            while (connected && (line = in.readLine()) != null) {
+        while (true) {
+            readUntilClosed();
+            connected = false;
+            if (leaving) return;
+            if (sessionToken == null || gameWindow == null || !reconnect()) {
+                if (gameWindow != null) {
+                    gameWindow.onDisconnect(); //уведомляем о разрыве
+                }
+                return;
+            }
+        }
+    }
+
+    //переподключение с токеном сессии: сервер держит роль, счет и рисунок
+    private boolean reconnect() {
+        gameWindow.onReconnecting();
+        for (long delay : RECONNECT_DELAYS_MS) {
+            try {
+                Thread.sleep(delay);
+                if (leaving) return false;
+                openConnection();
+                send(Protocol.createResume(sessionToken + Protocol.FEATURE_SEPARATOR + Protocol.FEATURE_BINARY));
+                System.out.println("Переподключение к " + host + ":" + port);
+                return true;
+            } catch (IOException e) {
+                System.err.println("Переподключение не удалось: " + e.getMessage());
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    //читает одно соединение до разрыва
+    private void readUntilClosed() {
+        FrameDecoder decoder = new FrameDecoder(MAX_FRAME);
+        FrameDecoder.Handler handler = new FrameDecoder.Handler() {
+            @Override
+            public void onLine(String line) {
                 Protocol.Message message = Protocol.parse(line); //парсим соо для объекта соо
                 if (message != null) {
                     handleMessage(message); //обрабатываем
                 }
             }
-        } catch (IOException e) { //соединение разорвано
-            connected = false;
-            if (gameWindow != null) {
-                gameWindow.onDisconnect(); //уведомляем о разрыве
+
+            @Override
+            public void onFrame(int type, byte[] data, int offset, int length) {
+                handleFrame(type, data, offset, length);
+            }
+        };
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while (connected && (read = in.read(buffer)) != -1) {
+                if (!decoder.feed(buffer, 0, read, handler)) {
+                    throw new IOException("поврежденный поток от сервера");
+                }
             }
+        } catch (IOException e) { //соединение разорвано
+            System.err.println("Соединение разорвано: " + e.getMessage());
         }
     }
 
@@ -129,6 +255,18 @@ public class GameClient {
             return;
         }
         
+        // сервер включил бинарные кадры, приходит сразу после JOIN
+        if (Protocol.PROTO.equals(command)) {
+            binary = Protocol.FEATURE_BINARY.equals(data);
+            return;
+        }
+
+        // токен сессии, с ним можно вернуться в ту же игру
+        if (Protocol.SESSION.equals(command)) {
+            sessionToken = data;
+            return;
+        }
+
         // остальные сообщения требуют gameWindow
         if (gameWindow == null) return;
 
@@ -143,24 +281,36 @@ public class GameClient {
                 break;
             case Protocol.DRAW:
                 // Парсим координаты x1,y1,x2,y2,color
-                String[] parts = data.split(",");
-                if (parts.length == 5) {
-                    try {
-                        //строки в числа
-                        int x1 = Integer.parseInt(parts[0]);
-                        int y1 = Integer.parseInt(parts[1]);
-                        int x2 = Integer.parseInt(parts[2]);
-                        int y2 = Integer.parseInt(parts[3]);
-                        String color = parts[4];  // цвет в формате HEX (#RRGGBB)
-                        gameWindow.drawLine(x1, y1, x2, y2, color); //передаем данные в окно для отрисовки
-                    } catch (NumberFormatException e) {
-                        System.err.println("Ошибка парсинга координат: " + data);
-                    }
+                if (Protocol.parseDraw(data, inSegment)) {
+                    drawSegment(inSegment); //передаем данные в окно для отрисовки
+                } else {
+                    System.err.println("Ошибка парсинга координат: " + data);
+                }
+                break;
+            case Protocol.STROKE:
+                // штрих,цвет,x0,y0,x1,y1,...
+                if (Protocol.parseStroke(data, inPolyline)) {
+                    drawPolyline(inPolyline);
                 }
                 break;
             case Protocol.CLEAR:
                 gameWindow.clearCanvas();
                 break;
+            case Protocol.UNDO:
+                // штрих отменен рисующим, возврат придет обычными кусками STROKE
+                // рисующему UNDO приходит, если сервер не принял его REDO
+                int undoId = Protocol.parseStrokeId(data);
+                if (undoId > 0) {
+                    gameWindow.undoStroke(undoId);
+                }
+                break;
+            case Protocol.REDO:
+                // сервер не принял нашу отмену, штрих остался у всех
+                int redoId = Protocol.parseStrokeId(data);
+                if (redoId > 0) {
+                    gameWindow.restoreStroke(redoId);
+                }
+                break;
             case Protocol.SCORE:
                 // игрок1=10,игрок2=5
                 gameWindow.updateScore(data);
@@ -174,6 +324,20 @@ public class GameClient {
                     gameWindow.addChatMessage(chatNick, chatMsg); //добавляем соо в чат игрового окна
                 }
                 break;
+            case Protocol.RESUME:
+                if ("OK".equals(data)) {
+                    gameWindow.onReconnected();
+                } else {
+                    // сервер нас уже не ждал: входим в игру заново
+                    sessionToken = null;
+                    gameWindow.clearCanvas();
+                    gameWindow.onGameStart("Игра не сохранилась, ищем новую...");
+                    send(Protocol.createJoin(nickname, Protocol.FEATURE_BINARY));
+                }
+                break;
+            case Protocol.LEADERBOARD:
+                gameWindow.showLeaderboard(data);
+                break;
             case Protocol.GAME_START:
                 gameWindow.onGameStart(data); //запускаем подготовку к игре
                 break;
@@ -183,6 +347,54 @@ public class GameClient {
         }
     }
     
+    //обрабатывает бинарный кадр от сервера
+    private void handleFrame(int type, byte[] data, int offset, int length) {
+        if (gameWindow == null) return;
+        if (type == BinaryProtocol.SEGMENT && BinaryProtocol.decodeSegment(data, offset, length, inSegment)) {
+            drawSegment(inSegment);
+        } else if (type == BinaryProtocol.POLYLINE && BinaryProtocol.decodePolyline(data, offset, length, inPolyline)) {
+            drawPolyline(inPolyline);
+        } else if (type == BinaryProtocol.SNAPSHOT) {
+            applySnapshot(data, offset, length);
+        }
+    }
+
+    //снимок рисунка когда вошли посреди раунда: картинка и штрихи поверх нее
+    private void applySnapshot(byte[] data, int offset, int length) {
+        gameWindow.clearCanvas();
+        boolean ok = CanvasSnapshot.decode(data, offset, length, MAX_FRAME, inPolyline,
+                new CanvasSnapshot.Handler() {
+                    @Override
+                    public void onImage(byte[] png, int imageOffset, int imageLength) {
+                        try {
+                            BufferedImage image = ImageIO.read(new ByteArrayInputStream(png, imageOffset, imageLength));
+                            if (image != null) {
+                                gameWindow.drawImage(image);
+                            }
+                        } catch (IOException e) {
+                            System.err.println("Ошибка чтения снимка: " + e.getMessage());
+                        }
+                    }
+
+                    @Override
+                    public void onPolyline(StrokePolyline polyline) {
+                        drawPolyline(polyline);
+                    }
+                });
+        if (!ok) {
+            System.err.println("Поврежденный снимок рисунка");
+        }
+    }
+
+    // окно копирует точки в свою очередь, inPolyline и inSegment сразу свободны
+    private void drawPolyline(StrokePolyline polyline) {
+        gameWindow.drawPolyline(polyline);
+    }
+
+    private void drawSegment(StrokeSegment segment) {
+        gameWindow.drawSegment(segment);
+    }
+
     public void setGameWindow(GameWindow gameWindow) {
         this.gameWindow = gameWindow;
     }
@@ -195,7 +407,10 @@ public class GameClient {
         return nickname;
     }
     
+    //игрок уходит сам: сообщаем серверу чтобы он не ждал переподключения
     public void disconnect() {
+        leaving = true;
+        send(Protocol.LEAVE + ":");
         connected = false;
         try {
             if (socket != null) {
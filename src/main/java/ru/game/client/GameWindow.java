@@ -1,9 +1,16 @@
 package ru.game.client;
 
+import ru.game.protocol.Protocol;
+import ru.game.protocol.StrokePolyline;
+import ru.game.protocol.StrokeSegment;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * главное окно игры через Graphics
@@ -23,13 +30,46 @@ public class GameWindow extends JFrame {
     private JButton guessButton;      // кнопка отправить
     private JTextArea chatArea;       // для отображения чата
     private JButton clearButton;      // кнопка очистить холст
+    private JButton undoButton;       // отменить последний штрих
+    private JButton redoButton;       // вернуть отмененный штрих
     private JLabel scoreLabel;        // счет игрока
     private JLabel roleLabel;         // текущая роль игрока
     private JLabel statusLabel;       // статус игры
 
     // ПЕРЕМЕННЫЕ ДЛЯ РИСОВАНИЯ
     private int lastX, lastY; // последние координаты мыши чтобы рисовать линии
-    private Color currentColor; // текущий цвет для рисования
+    private int currentColor; // текущий цвет для рисования, номер палитры Protocol.COLORS
+    private final StrokeBatcher batcher; // копит точки штриха и отправляет пачками
+    private final StrokeHistory history = new StrokeHistory(); // свои штрихи для отмены
+    private boolean strokeInHistory; // текущий штрих уже в истории
+
+    // РИСУНОК ОТ СЕРВЕРА
+    private static final long DRAIN_WAIT_NANOS = 1_000_000;
+    private final StrokeQueue incoming = new StrokeQueue();  // сеть -> поток Swing
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final StrokeQueue.Handler incomingHandler = new StrokeQueue.Handler() {
+        @Override
+        public void onLine(int[] xs, int[] ys, int count, int color, int strokeId) {
+            canvas.strokePolyline(xs, ys, count, color, strokeId);
+        }
+
+        @Override
+        public void onClear() {
+            canvas.clear();
+            history.clear();
+        }
+
+        @Override
+        public void onImage(BufferedImage image) {
+            canvas.drawImage(image);
+        }
+
+        @Override
+        public void onUndo(int strokeId) {
+            canvas.hideStroke(strokeId);
+            history.forget(strokeId); // у рисующего это отказ в возврате
+        }
+    };
 
     /**
      * Конструктор основного игрового окна
@@ -38,8 +78,9 @@ public class GameWindow extends JFrame {
     public GameWindow(GameClient client) {
         this.client = client; // ссылка на клиент
         this.client.setGameWindow(this);
-        this.currentColor = Color.BLACK;  // по умолчанию черный цвет
+        this.currentColor = 0;  // по умолчанию черный цвет
         this.isDrawer = false;
+        this.batcher = new StrokeBatcher(client);
 
         initializeUI(); // создаем и настраиваем все элементы интерфейса
         setupDrawing(); // Настраиваем обработчики мыши для рисования
@@ -52,6 +93,12 @@ public class GameWindow extends JFrame {
         // настройка основого окна
         setTitle("🎨 Рисуй и Угадывай"); // Заголовок окна
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);  // При закрытии окна завершить программу
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                client.disconnect(); // сервер не будет ждать нашего переподключения
+            }
+        });
         setSize(1000, 700);// Размер окна
         setLocationRelativeTo(null); // Центрировать
 
@@ -86,6 +133,10 @@ public class GameWindow extends JFrame {
         scoreLabel.setFont(new Font("Arial", Font.BOLD, 12));
         infoPanel.add(scoreLabel);
 
+        JButton leaderboardButton = new JButton("Рейтинг");  // общий рейтинг игроков
+        leaderboardButton.addActionListener(e -> client.requestLeaderboard());
+        infoPanel.add(leaderboardButton);
+
         leftPanel.add(infoPanel, BorderLayout.NORTH);  // Инфопанель в верхней части левой панели
 
         // ПАНЕЛЬ ДЛЯ УГАДЫВАНИЯ И ЧАТА
@@ -143,66 +194,63 @@ public class GameWindow extends JFrame {
 
         clearButton = new JButton("Очистить");
         clearButton.addActionListener(e -> {
+            if (!isDrawer) return; // очистку угадывающего сервер не примет
             canvas.clear();      // Очищаем холст локально
+            history.clear();     // очищенное не отменить
             client.sendClear();  // Отправляем команду очистки на сервер
         });
 
+        undoButton = new JButton("Отменить");
+        undoButton.setToolTipText("Отменить последний штрих (Ctrl+Z)");
+        undoButton.addActionListener(e -> undoLast());
+        redoButton = new JButton("Вернуть");
+        redoButton.setToolTipText("Вернуть отмененный штрих (Ctrl+Y)");
+        redoButton.addActionListener(e -> redoLast());
+
+        // Ctrl+Z и Ctrl+Y работают где бы ни был фокус в окне
+        JComponent root = getRootPane();
+        root.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW)
+                .put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK), "undoStroke");
+        root.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW)
+                .put(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK), "redoStroke");
+        root.getActionMap().put("undoStroke", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                undoLast();
+            }
+        });
+        root.getActionMap().put("redoStroke", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                redoLast();
+            }
+        });
+
         // Добавляем кнопку очистки
         toolPanel.add(clearButton);
+        toolPanel.add(undoButton);
+        toolPanel.add(redoButton);
         toolPanel.add(new JLabel("Цвет:"));
 
         //СОЗДАЕМ КНОПКИ ВЫБОРА ЦВЕТА
 
 
-        // Черный
-        JButton blackBtn = new JButton("⚫");
-        blackBtn.setBackground(Color.BLACK);
-        blackBtn.setForeground(Color.WHITE);
-        blackBtn.addActionListener(e -> currentColor = Color.BLACK);
-        toolPanel.add(blackBtn);
-
-        // Красный
-        JButton redBtn = new JButton("🔴");
-        redBtn.setBackground(Color.RED);
-        redBtn.addActionListener(e -> currentColor = Color.RED);
-        toolPanel.add(redBtn);
-
-        // Оранжевый
-        JButton orangeBtn = new JButton("🟠");
-        orangeBtn.setBackground(new Color(255, 165, 0));
-        orangeBtn.addActionListener(e -> currentColor = new Color(255, 165, 0));
-        toolPanel.add(orangeBtn);
-
-        // Желтый
-        JButton yellowBtn = new JButton("🟡");
-        yellowBtn.setBackground(Color.YELLOW);
-        yellowBtn.addActionListener(e -> currentColor = Color.YELLOW);
-        toolPanel.add(yellowBtn);
-
-        // Зеленый
-        JButton greenBtn = new JButton("🟢");
-        greenBtn.setBackground(Color.GREEN);
-        greenBtn.addActionListener(e -> currentColor = Color.GREEN);
-        toolPanel.add(greenBtn);
-
-        // Синий
-        JButton blueBtn = new JButton("🔵");
-        blueBtn.setBackground(Color.BLUE);
-        blueBtn.addActionListener(e -> currentColor = Color.BLUE);
-        toolPanel.add(blueBtn);
-
-        // Фиолетовый
-        JButton purpleBtn = new JButton("🟣");
-        purpleBtn.setBackground(new Color(128, 0, 128));
-        purpleBtn.addActionListener(e -> currentColor = new Color(128, 0, 128));
-        toolPanel.add(purpleBtn);
-
-        // Белый
-        JButton whiteBtn = new JButton("⚪");
-        whiteBtn.setBackground(Color.WHITE);
-        whiteBtn.setBorder(BorderFactory.createLineBorder(Color.GRAY)); // рамка для видимости на белом фоне
-        whiteBtn.addActionListener(e -> currentColor = Color.WHITE);
-        toolPanel.add(whiteBtn);
+        // кнопки в порядке палитры Protocol.COLORS: черный, красный, оранжевый,
+        // желтый, зеленый, синий, фиолетовый, белый
+        String[] colorLabels = {"⚫", "🔴", "🟠", "🟡", "🟢", "🔵", "🟣", "⚪"};
+        for (int i = 0; i < colorLabels.length; i++) {
+            int color = i;
+            JButton colorBtn = new JButton(colorLabels[i]);
+            colorBtn.setBackground(StrokeRenderer.color(color));
+            if (color == 0) {
+                colorBtn.setForeground(Color.WHITE); // черная кнопка
+            }
+            if (StrokeRenderer.color(color).equals(Color.WHITE)) {
+                colorBtn.setBorder(BorderFactory.createLineBorder(Color.GRAY)); // рамка для видимости на белом фоне
+            }
+            colorBtn.addActionListener(e -> currentColor = color);
+            toolPanel.add(colorBtn);
+        }
 
         // Собираем центральную панель
         centerPanel.add(canvas, BorderLayout.CENTER);
@@ -230,8 +278,15 @@ public class GameWindow extends JFrame {
                     int y = scaleY(e.getY());
                     lastX = x;  // Запоминаем начальную точку
                     lastY = y;
+                    batcher.begin(x, y, currentColor);
+                    strokeInHistory = false; // в историю попадет с первой линией
                 }
             }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                batcher.end(); // конец штриха отправляем без ожидания таймера
+            }
         });
 
         // Обработчик перетаскивания мыши
@@ -243,12 +298,17 @@ public class GameWindow extends JFrame {
                     int x = scaleX(e.getX());
                     int y = scaleY(e.getY());
 
+                    if (!strokeInHistory) {
+                        history.push(batcher.getStrokeId());
+                        strokeInHistory = true;
+                    }
+
                     // 1. Рисуем локально на своем холсте
-                    canvas.drawLine(lastX, lastY, x, y, currentColor);
+                    canvas.drawLine(lastX, lastY, x, y, currentColor, batcher.getStrokeId());
 
                     // 2. Отправляем на сервер чтобы другие игроки увидели
-                    String colorStr = colorToString(currentColor);  // Преобразуем цвет в строку
-                    client.sendDraw(lastX, lastY, x, y, colorStr);
+                    // точки копятся и уходят пачкой раз в 16 мс
+                    batcher.add(x, y);
 
                     // Запоминаем текущую точку как начало следующей линии
                     lastX = x;
@@ -258,6 +318,27 @@ public class GameWindow extends JFrame {
         });
     }
 
+    // ОТМЕНА И ВОЗВРАТ ШТРИХА
+    // у себя штрих прячется сразу, сервер убирает его у остальных
+    // и из снимка рисунка; при возврате остальным он приходит заново кусками
+
+    private void undoLast() {
+        if (!isDrawer) return;
+        batcher.end(); // недописанный кусок должен дойти до сервера раньше UNDO
+        int strokeId = history.undo();
+        if (strokeId == 0) return;
+        canvas.hideStroke(strokeId);
+        client.sendUndo(strokeId);
+    }
+
+    private void redoLast() {
+        if (!isDrawer) return;
+        int strokeId = history.redo();
+        if (strokeId == 0) return;
+        canvas.showStroke(strokeId);
+        client.sendRedo(strokeId);
+    }
+
     /**
      * Масштабирование координаты X
      * размер окна может меняться изображение всегда 600x500
@@ -276,37 +357,6 @@ public class GameWindow extends JFrame {
         return (int) ((double) panelY / canvas.getHeight() * 500);
     }
 
-    /**
-     * Преобразование цвета в строку
-     */
-    private String colorToString(Color color) {
-        if (color.equals(Color.BLACK)) return "BLACK";
-        if (color.equals(Color.RED)) return "RED";
-        if (color.equals(new Color(255, 165, 0))) return "ORANGE";
-        if (color.equals(Color.YELLOW)) return "YELLOW";
-        if (color.equals(Color.GREEN)) return "GREEN";
-        if (color.equals(Color.BLUE)) return "BLUE";
-        if (color.equals(new Color(128, 0, 128))) return "PURPLE";
-        if (color.equals(Color.WHITE)) return "WHITE";
-        return "BLACK";  // По умолчанию черный
-    }
-
-    /**
-     * Преобразование строки обратно в цвет
-     */
-    private Color stringToColor(String colorStr) {
-        switch (colorStr) {
-            case "RED": return Color.RED;
-            case "ORANGE": return new Color(255, 165, 0);
-            case "YELLOW": return Color.YELLOW;
-            case "GREEN": return Color.GREEN;
-            case "BLUE": return Color.BLUE;
-            case "PURPLE": return new Color(128, 0, 128);
-            case "WHITE": return Color.WHITE;
-            default: return Color.BLACK;  // По умолчанию черный
-        }
-    }
-
     //МЕТОДЫ КОТОРЫЕ ВЫЗЫВАЕТ GAMECLIENT
 
     /**
@@ -363,22 +413,98 @@ public class GameWindow extends JFrame {
         });
     }
 
+    // РИСУНОК ОТ СЕРВЕРА
+    // сетевой поток кладет линии в очередь, поток Swing забирает все
+    // накопленное одним проходом и просит одну перерисовку,
+    // поэтому очередь событий Swing не забивается тысячами мелких задач
+    // писатель у очереди один: поток чтения сообщений клиента (или просмотра записей)
+
     /**
-     * Нарисовать линию
+     * Нарисовать отрезок от сервера
      */
-    public void drawLine(int x1, int y1, int x2, int y2, String color) {
+    public void drawSegment(StrokeSegment segment) {
+        while (!incoming.offerSegment(segment)) {
+            waitForDrain();
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Нарисовать несколько соединенных отрезков от сервера
+     * точки копируются в очередь, polyline можно сразу переиспользовать
+     */
+    public void drawPolyline(StrokePolyline polyline) {
+        while (!incoming.offerPolyline(polyline)) {
+            waitForDrain();
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Нарисовать готовую картинку (снимок рисунка от сервера)
+     */
+    public void drawImage(BufferedImage image) {
+        while (!incoming.offerImage(image)) {
+            waitForDrain();
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Убрать штрих рисующего, через очередь после его уже пришедших кусков
+     */
+    public void undoStroke(int strokeId) {
+        while (!incoming.offerUndo(strokeId)) {
+            waitForDrain();
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Вернуть свой штрих, отмену которого сервер не принял
+     * своих кусков в очереди нет, поэтому сразу в поток Swing
+     */
+    public void restoreStroke(int strokeId) {
         SwingUtilities.invokeLater(() -> {
-            canvas.drawLine(x1, y1, x2, y2, stringToColor(color));
+            history.forget(strokeId);
+            canvas.showStroke(strokeId);
         });
     }
 
     /**
      * Очистить холст
+     * тоже через очередь, чтобы линии до очистки не нарисовались после нее
      */
     public void clearCanvas() {
-        SwingUtilities.invokeLater(() -> {
-            canvas.clear();
-        });
+        while (!incoming.offerClear()) {
+            waitForDrain();
+        }
+        scheduleDrain();
+    }
+
+    // одна задача разбора в очереди Swing, сколько бы линий ни пришло
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::drainIncoming);
+        }
+    }
+
+    // очередь полна: ждем пока поток Swing ее разберет
+    // (сеть при этом не читается и TCP притормозит сервер)
+    private void waitForDrain() {
+        if (SwingUtilities.isEventDispatchThread()) {
+            drainIncoming();
+        } else {
+            scheduleDrain();
+            LockSupport.parkNanos(DRAIN_WAIT_NANOS);
+        }
+    }
+
+    // в потоке Swing: нарисовать все накопленное и перерисовать один раз
+    private void drainIncoming() {
+        drainScheduled.set(false); // что придет дальше, запланирует новый разбор
+        incoming.drain(incomingHandler);
+        canvas.repaintDirty();
     }
 
     /**
@@ -391,6 +517,29 @@ public class GameWindow extends JFrame {
         });
     }
 
+    /**
+     * Показать рейтинг: игроков:мое место:мои очки, дальше через таб место:очки:ник
+     */
+    public void showLeaderboard(String data) {
+        String[] parts = data.split(String.valueOf(Protocol.LEADERBOARD_SEPARATOR));
+        String[] header = parts[0].split(":");
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i < parts.length; i++) {
+            String[] entry = parts[i].split(":", 3);
+            if (entry.length == 3) {
+                text.append(entry[0]).append(". ").append(entry[2]).append(" - ").append(entry[1]).append('\n');
+            }
+        }
+        if (header.length == 3 && !"0".equals(header[1])) {
+            text.append("\nВаше место: ").append(header[1]).append(" из ").append(header[0])
+                    .append(", очков: ").append(header[2]);
+        }
+        SwingUtilities.invokeLater(() -> {
+            JOptionPane.showMessageDialog(this, text.length() > 0 ? text.toString() : "Рейтинг пока пуст",
+                    "Рейтинг", JOptionPane.INFORMATION_MESSAGE);
+        });
+    }
+
     /**
      * Добавить сообщение в чат
      */
@@ -456,6 +605,24 @@ public class GameWindow extends JFrame {
         });
     }
 
+    /**
+     * Связь потеряна, клиент пробует переподключиться
+     */
+    public void onReconnecting() {
+        SwingUtilities.invokeLater(() -> {
+            statusLabel.setText("Связь потеряна, переподключение...");
+        });
+    }
+
+    /**
+     * Связь восстановлена, сервер вернул роль и рисунок
+     */
+    public void onReconnected() {
+        SwingUtilities.invokeLater(() -> {
+            statusLabel.setText("Связь восстановлена");
+        });
+    }
+
     /**
      * Обработка разрыва соединения
      */
@@ -468,25 +635,37 @@ public class GameWindow extends JFrame {
 
     /**
      * Внутренний класс холст для рисования
+     * сам рисунок хранится ломаными в StrokeScene (координаты 600x500),
+     * на экран он растеризуется в слой размером с панель в пикселях экрана,
+     * поэтому в большом окне линии четкие, а не растянутые пиксели
+     * слой перестраивается лениво: пока окно тянут, показывается растянутый старый слой,
+     * а заново сцена рисуется когда размер не меняется RESIZE_DELAY_MS;
+     * новые линии дорисовываются в него сразу, и перерисовывается только их прямоугольник
+     * при отмене и возврате штриха слой заново рисуется только в рамке этого штриха
      */
     private class DrawingCanvas extends JPanel {
-        private BufferedImage image;  // Изображение на котором рисуем
-        private Graphics2D g2d;       // Инструмент для рисования на изображении
+        // запас вокруг линии: половина толщины и сглаживание
+        private static final int DIRTY_PAD = Protocol.LINE_WIDTH / 2 + 2;
+        // запас для перерисовки штриха целиком: острый угол ломаной выступает
+        // до половины толщины * miterLimit (у BasicStroke по умолчанию 10)
+        private static final int STROKE_PAD = (Protocol.LINE_WIDTH * 10 + 1) / 2 + 2;
+        private static final int RESIZE_DELAY_MS = 150; // большой рисунок перерисовывается сотню мс
+
+        private final StrokeScene scene = new StrokeScene(); // рисунок раунда
+        private BufferedImage layer;       // сцена в пикселях экрана
+        private Graphics2D layerGraphics;  // рисует в слой в координатах холста
+        private StrokeRenderer renderer;   // null пока слоя нет
+        private final int[] lineXs = new int[2]; // отрезок мыши для сцены
+        private final int[] lineYs = new int[2];
+        private final int[] strokeArea = new int[4]; // рамка отмененного штриха
+        private boolean rebuildLayer;      // размер устоялся, слой пора перестроить
+        private final Timer resizeTimer = new Timer(RESIZE_DELAY_MS, e -> {
+            rebuildLayer = true;
+            repaint();
+        });
 
         public DrawingCanvas() {
-            // Создаем изображение фиксированного размера
-            image = new BufferedImage(600, 500, BufferedImage.TYPE_INT_RGB);
-            g2d = image.createGraphics();  // Получаем инструмент для рисования
-
-            // Настройки для красивого рисования
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON); //сглаживание кисти
-
-            // Заливаем белым цветом фон
-            g2d.setColor(Color.WHITE);
-            g2d.fillRect(0, 0, 600, 500);
-
-            // Устанавливаем черный цвет по умолчанию
-            g2d.setColor(Color.BLACK);
+            resizeTimer.setRepeats(false);
         }
 
         /**
@@ -496,30 +675,163 @@ public class GameWindow extends JFrame {
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
 
-            if (image != null) {
-                // Рисуем изображение с масштабированием
-                g.drawImage(image, 0, 0, getWidth(), getHeight(), null);
+            // на экранах с масштабом (HiDPI) в точке панели несколько пикселей
+            AffineTransform device = ((Graphics2D) g).getTransform();
+            int width = (int) Math.ceil(getWidth() * Math.max(1, device.getScaleX()));
+            int height = (int) Math.ceil(getHeight() * Math.max(1, device.getScaleY()));
+            if (width <= 0 || height <= 0) return;
+            if (layer == null || rebuildLayer) {
+                rebuildLayer = false;
+                ensureLayer(width, height);
+            } else if (layer.getWidth() != width || layer.getHeight() != height) {
+                resizeTimer.restart(); // окно еще тянут, пока растягиваем старый слой
+            }
+
+            // слой обычно уже нужного размера, копируются только пиксели внутри clip
+            g.drawImage(layer, 0, 0, getWidth(), getHeight(), null);
+        }
+
+        // слой под текущий размер, при смене размера сцена рисуется заново
+        private void ensureLayer(int width, int height) {
+            if (layer != null && layer.getWidth() == width && layer.getHeight() == height) return;
+            if (layerGraphics != null) {
+                layerGraphics.dispose();
+            }
+            layer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            layerGraphics = layer.createGraphics();
+            layerGraphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON); //сглаживание кисти
+            layerGraphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR); // снимок от сервера растягивается
+            layerGraphics.scale(width / (double) Protocol.CANVAS_WIDTH, height / (double) Protocol.CANVAS_HEIGHT);
+            renderer = new StrokeRenderer(layerGraphics);
+            rasterize();
+        }
+
+        // нарисовать всю сцену в слой
+        private void rasterize() {
+            layerGraphics.setColor(Color.WHITE);
+            layerGraphics.fillRect(0, 0, Protocol.CANVAS_WIDTH, Protocol.CANVAS_HEIGHT);
+            BufferedImage background = scene.getBackground();
+            if (background != null) {
+                layerGraphics.drawImage(background, 0, 0, null);
+            }
+            scene.render(renderer, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 0);
+            renderer.resetDirty();
+        }
+
+        // перерисовать прямоугольник холста от (minX, minY) до (maxX, maxY)
+        // с запасом pad на толщину линии, в координатах панели
+        private void repaintImageArea(int minX, int minY, int maxX, int maxY, int pad) {
+            double scaleX = getWidth() / (double) Protocol.CANVAS_WIDTH;
+            double scaleY = getHeight() / (double) Protocol.CANVAS_HEIGHT;
+            int x1 = (int) Math.floor((minX - pad) * scaleX);
+            int y1 = (int) Math.floor((minY - pad) * scaleY);
+            int x2 = (int) Math.ceil((maxX + pad + 1) * scaleX);
+            int y2 = (int) Math.ceil((maxY + pad + 1) * scaleY);
+            repaint(x1, y1, x2 - x1, y2 - y1); // соседние области Swing объединит сам
+        }
+
+        /**
+         * Нарисовать линию на холсте, color - номер палитры
+         */
+        public void drawLine(int x1, int y1, int x2, int y2, int color, int strokeId) {
+            lineXs[0] = x1;
+            lineYs[0] = y1;
+            lineXs[1] = x2;
+            lineYs[1] = y2;
+            scene.add(lineXs, lineYs, 0, 2, color, strokeId);
+            if (renderer != null) {
+                renderer.line(x1, y1, x2, y2, color);
+                repaintDirty(); // Просим Swing перерисовать только место линии
             }
         }
 
         /**
-         * Нарисовать линию на холсте
+         * Нарисовать ломаную линию без перерисовки,
+         * ее место добавляется к грязной области для repaintDirty
          */
-        public void drawLine(int x1, int y1, int x2, int y2, Color color) {
-            g2d.setColor(color); // Устанавливаем цвет
-            g2d.setStroke(new BasicStroke(3)); // Толщина линии 3 пикселя
-            g2d.drawLine(x1, y1, x2, y2); // Рисуем линию
-            repaint(); // Просим Swing перерисовать компонент
+        public void strokePolyline(int[] xs, int[] ys, int count, int color, int strokeId) {
+            scene.add(xs, ys, 0, count, color, strokeId);
+            if (renderer != null) {
+                renderer.polyline(xs, ys, 0, count, color);
+            }
+        }
+
+        /**
+         * Спрятать штрих (отмена)
+         */
+        public void hideStroke(int strokeId) {
+            if (scene.hide(strokeId, strokeArea)) {
+                redrawArea(strokeArea);
+            }
+        }
+
+        /**
+         * Показать спрятанный штрих (возврат)
+         */
+        public void showStroke(int strokeId) {
+            if (scene.show(strokeId, strokeArea)) {
+                redrawArea(strokeArea);
+            }
+        }
+
+        // нарисовать сцену заново только внутри рамки area с запасом на толщину линии:
+        // фон и все куски, которые задевают рамку, остальной слой не трогаем
+        // рамка выравнивается по пикселям слоя, иначе при дробном масштабе
+        // сглаженная заливка края смешалась бы со старыми пикселями
+        private void redrawArea(int[] area) {
+            if (layerGraphics == null) return; // слоя еще нет, нарисуется целиком
+            repaintDirty(); // линии этого разбора, render ниже отметит лишнее
+            AffineTransform scale = layerGraphics.getTransform();
+            int x1 = (int) Math.floor((area[0] - STROKE_PAD) * scale.getScaleX());
+            int y1 = (int) Math.floor((area[1] - STROKE_PAD) * scale.getScaleY());
+            int x2 = (int) Math.ceil((area[2] + STROKE_PAD + 1) * scale.getScaleX());
+            int y2 = (int) Math.ceil((area[3] + STROKE_PAD + 1) * scale.getScaleY());
+            layerGraphics.setTransform(new AffineTransform()); // clip и заливка в пикселях слоя
+            layerGraphics.setClip(x1, y1, x2 - x1, y2 - y1);
+            layerGraphics.setColor(Color.WHITE);
+            layerGraphics.fillRect(x1, y1, x2 - x1, y2 - y1);
+            layerGraphics.setTransform(scale);
+            BufferedImage background = scene.getBackground();
+            if (background != null) {
+                layerGraphics.drawImage(background, 0, 0, null);
+            }
+            scene.render(renderer, area[0], area[1], area[2], area[3], 2 * STROKE_PAD);
+            layerGraphics.setClip(null);
+            renderer.resetDirty();
+            repaintImageArea(area[0], area[1], area[2], area[3], STROKE_PAD);
+        }
+
+        /**
+         * Перерисовать все что нарисовано с прошлого раза, одним прямоугольником
+         */
+        public void repaintDirty() {
+            if (renderer == null || !renderer.isDirty()) return;
+            repaintImageArea(renderer.getDirtyMinX(), renderer.getDirtyMinY(),
+                    renderer.getDirtyMaxX(), renderer.getDirtyMaxY(), DIRTY_PAD);
+            renderer.resetDirty();
+        }
+
+        /**
+         * Нарисовать картинку поверх холста (снимок рисунка 600x500)
+         */
+        public void drawImage(BufferedImage picture) {
+            scene.setBackground(picture);
+            if (layerGraphics != null) {
+                layerGraphics.drawImage(picture, 0, 0, null);
+            }
+            repaint();
         }
 
         /**
          * Очистить холст (залить белым)
          */
         public void clear() {
-            g2d.setColor(Color.WHITE); // Берем белый цвет
-            g2d.fillRect(0, 0, image.getWidth(), image.getHeight()); // Заливаем весь холст
-            g2d.setColor(Color.BLACK); // Возвращаем черный цвет по умолчанию
+            scene.clear();
+            if (layerGraphics != null) {
+                rasterize(); // пустая сцена: только белый фон
+            }
             repaint(); // Перерисовываем
         }
     }
-}
\ No newline at end of file
+}
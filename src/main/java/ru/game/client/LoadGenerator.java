@@ -0,0 +1,143 @@
+package ru.game.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * нагрузочный клиент для сравнения режимов сервера
+ * открывает много соединений из одного потока через Selector,
+ * все входят в игру, часть из них (активные) раз в интервал пишет в чат
+ * и ждет свое сообщение обратно, время ответа собирается в перцентили
+ *
+ * запуск: LoadGenerator host port соединений активных секунд
+ * сервер запускать с -Dgame.rateLimit=false: 10 сообщений чата
+ * в секунду больше лимита обычного игрока
+ */
+public class LoadGenerator {
+    private static final long SEND_INTERVAL_MS = 100;   // активный бот пишет 10 раз в секунду
+
+    public static void main(String[] args) throws IOException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8888;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int active = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+
+        Selector selector = Selector.open();
+        List<Bot> bots = new ArrayList<>();
+        long connectStart = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            try {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+                channel.configureBlocking(false);
+                Bot bot = new Bot("bot" + i, channel, i < active);
+                channel.register(selector, SelectionKey.OP_READ, bot);
+                bot.write("JOIN:" + bot.nickname);
+                bots.add(bot);
+            } catch (IOException e) {
+                System.err.println("Подключено только " + bots.size() + ": " + e.getMessage());
+                break;
+            }
+        }
+        System.out.printf("Соединений: %d за %d мс%n", bots.size(), (System.nanoTime() - connectStart) / 1_000_000);
+
+        long[] latencies = new long[1 << 20];
+        int count = 0;
+        long end = System.currentTimeMillis() + seconds * 1000L;
+        long nextSend = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        while (System.currentTimeMillis() < end) {
+            long now = System.currentTimeMillis();
+            if (now >= nextSend) {
+                for (Bot bot : bots) {
+                    if (bot.active) {
+                        bot.write("CHAT:t" + System.nanoTime());
+                    }
+                }
+                nextSend = now + SEND_INTERVAL_MS;
+            }
+
+            selector.select(Math.max(1, nextSend - System.currentTimeMillis()));
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Bot bot = (Bot) key.attachment();
+                buffer.clear();
+                int read;
+                try {
+                    read = bot.channel.read(buffer);
+                } catch (IOException e) {
+                    read = -1;
+                }
+                if (read < 0) {
+                    key.cancel();
+                    continue;
+                }
+                for (String line : bot.lines(buffer.array(), read)) {
+                    // CHAT:botN(роль):tNANOS - свое сообщение вернулось
+                    String prefix = "CHAT:" + bot.nickname + "(";
+                    int t = line.indexOf("):t");
+                    if (line.startsWith(prefix) && t > 0 && count < latencies.length) {
+                        latencies[count++] = System.nanoTime() - Long.parseLong(line.substring(t + 3));
+                    }
+                }
+            }
+        }
+
+        Arrays.sort(latencies, 0, count);
+        System.out.printf("Ответов: %d (%.0f в секунду)%n", count, count / (double) seconds);
+        if (count > 0) {
+            System.out.printf("Задержка мс: p50=%.2f p99=%.2f max=%.2f%n",
+                    latencies[count / 2] / 1e6, latencies[(int) (count * 0.99)] / 1e6, latencies[count - 1] / 1e6);
+        }
+        for (Bot bot : bots) {
+            bot.channel.close();
+        }
+    }
+
+    // одно соединение бота
+    private static class Bot {
+        final String nickname;
+        final SocketChannel channel;
+        final boolean active;           // пишет в чат и меряет задержку
+        private final StringBuilder tail = new StringBuilder();
+
+        Bot(String nickname, SocketChannel channel, boolean active) {
+            this.nickname = nickname;
+            this.channel = channel;
+            this.active = active;
+        }
+
+        void write(String message) throws IOException {
+            ByteBuffer out = ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8));
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+
+        // режем пришедшие байты на строки, хвост оставляем на потом
+        List<String> lines(byte[] bytes, int length) {
+            tail.append(new String(bytes, 0, length, StandardCharsets.UTF_8));
+            List<String> lines = new ArrayList<>();
+            int start = 0;
+            int newline;
+            while ((newline = tail.indexOf("\n", start)) >= 0) {
+                lines.add(tail.substring(start, newline));
+                start = newline + 1;
+            }
+            tail.delete(0, start);
+            return lines;
+        }
+    }
+}
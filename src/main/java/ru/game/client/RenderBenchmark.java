@@ -0,0 +1,197 @@
+package ru.game.client;
+
+import ru.game.protocol.BinaryProtocol;
+import ru.game.protocol.FrameDecoder;
+import ru.game.protocol.Protocol;
+import ru.game.protocol.StrokePolyline;
+import ru.game.protocol.StrokeSegment;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+/**
+ * скорость и мусор пути рисунка от байтов сокета до пикселей
+ * запуск: java -Djava.awt.headless=true ru.game.client.RenderBenchmark [повторов], по умолчанию 200
+ *
+ * поток кадров (отрезки и куски штрихов по 16 точек) разбирается FrameDecoder,
+ * кладется в StrokeQueue, разбирается и рисуется StrokeRenderer на картинке 600x500,
+ * как это делает окно; для сравнения тот же поток рисуется как раньше:
+ * новый BasicStroke, новый Color и копии массивов на каждое сообщение
+ *
+ * байты на отрезок считает ThreadMXBean по памяти выделенной потоком,
+ * каждый способ сначала прогревается тем же числом повторов
+ */
+public class RenderBenchmark {
+    private static final int MESSAGES = 2000;  // сообщений в потоке байтов
+    private static final int POINTS = 16;      // точек в куске штриха
+
+    private static final FrameDecoder decoder = new FrameDecoder(BinaryProtocol.MAX_POLYLINE_FRAME);
+    private static final StrokeSegment segment = new StrokeSegment();
+    private static final StrokePolyline polyline = new StrokePolyline();
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        byte[] stream = stream();
+        int segments = countSegments(stream);
+
+        BufferedImage image = new BufferedImage(Protocol.CANVAS_WIDTH, Protocol.CANVAS_HEIGHT,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        StrokeQueue queue = new StrokeQueue();
+        StrokeRenderer renderer = new StrokeRenderer(g);
+        StrokeQueue.Handler draw = new StrokeQueue.Handler() {
+            @Override
+            public void onLine(int[] xs, int[] ys, int count, int color, int strokeId) {
+                renderer.polyline(xs, ys, 0, count, color);
+            }
+
+            @Override
+            public void onClear() {
+            }
+
+            @Override
+            public void onImage(BufferedImage picture) {
+            }
+
+            @Override
+            public void onUndo(int strokeId) {
+            }
+        };
+        FrameDecoder.Handler toQueue = frames((s) -> queue.offerSegment(s), (p) -> queue.offerPolyline(p));
+        FrameDecoder.Handler direct = frames((s) -> drawOld(g, s.getX1(), s.getY1(), s.getX2(), s.getY2(), s.getColor()),
+                (p) -> drawOld(g, p));
+
+        System.out.printf("%-28s %10s %10s%n", "путь", "нс/отрезок", "байт/отрезок");
+        for (int round = 0; round < 2; round++) {
+            measure("очередь + StrokeRenderer", segments, iterations, () -> {
+                decoder.feed(stream, 0, stream.length, toQueue);
+                queue.drain(draw);
+                renderer.resetDirty();
+            });
+            measure("как было", segments, iterations, () -> decoder.feed(stream, 0, stream.length, direct));
+        }
+    }
+
+    private interface SegmentSink {
+        void accept(StrokeSegment segment);
+    }
+
+    private interface PolylineSink {
+        void accept(StrokePolyline polyline);
+    }
+
+    private static FrameDecoder.Handler frames(SegmentSink segments, PolylineSink polylines) {
+        return new FrameDecoder.Handler() {
+            @Override
+            public void onLine(String line) {
+            }
+
+            @Override
+            public void onFrame(int type, byte[] data, int offset, int length) {
+                if (type == BinaryProtocol.SEGMENT && BinaryProtocol.decodeSegment(data, offset, length, segment)) {
+                    segments.accept(segment);
+                } else if (type == BinaryProtocol.POLYLINE
+                        && BinaryProtocol.decodePolyline(data, offset, length, polyline)) {
+                    polylines.accept(polyline);
+                }
+            }
+        };
+    }
+
+    // КАК БЫЛО: объекты на каждое сообщение
+    private static void drawOld(Graphics2D g, int x1, int y1, int x2, int y2, int color) {
+        g.setColor(new Color(Protocol.COLOR_RGB[color]));
+        g.setStroke(new BasicStroke(Protocol.LINE_WIDTH));
+        g.drawLine(x1, y1, x2, y2);
+    }
+
+    private static void drawOld(Graphics2D g, StrokePolyline polyline) {
+        // окно рисовало позже, поэтому точки копировались
+        int[] xs = new int[polyline.getCount()];
+        int[] ys = new int[polyline.getCount()];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = polyline.getX(i);
+            ys[i] = polyline.getY(i);
+        }
+        g.setColor(new Color(Protocol.COLOR_RGB[polyline.getColor()]));
+        g.setStroke(new BasicStroke(Protocol.LINE_WIDTH));
+        g.drawPolyline(xs, ys, xs.length);
+    }
+
+    private static void measure(String name, int segments, int iterations, Runnable pass) {
+        for (int i = 0; i < iterations; i++) {
+            pass.run(); // прогрев
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocatedBefore = allocated(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            pass.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocatedAfter = allocated(threads);
+        double total = (double) segments * iterations;
+        String bytes = allocatedBefore < 0 ? "н/д" : String.format("%.1f", (allocatedAfter - allocatedBefore) / total);
+        System.out.printf("%-28s %10.1f %10s%n", name, elapsed / total, bytes);
+    }
+
+    // память выделенная текущим потоком, -1 если JVM не умеет считать
+    private static long allocated(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+            if (counting.isThreadAllocatedMemorySupported()) {
+                return counting.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    // ПОТОК БАЙТОВ: каждое четвертое сообщение отрезок, остальные куски штриха
+    private static byte[] stream() {
+        Random random = new Random(1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] frame = new byte[BinaryProtocol.MAX_POLYLINE_FRAME];
+        int x = Protocol.CANVAS_WIDTH / 2;
+        int y = Protocol.CANVAS_HEIGHT / 2;
+        for (int i = 0; i < MESSAGES; i++) {
+            int color = random.nextInt(Protocol.COLORS.length);
+            if (i % 4 == 0) {
+                int nx = step(random, x, Protocol.CANVAS_WIDTH);
+                int ny = step(random, y, Protocol.CANVAS_HEIGHT);
+                segment.set(x, y, nx, ny, color);
+                out.write(frame, 0, BinaryProtocol.encodeSegment(segment, frame));
+                x = nx;
+                y = ny;
+            } else {
+                polyline.reset(i, color);
+                for (int p = 0; p < POINTS; p++) {
+                    polyline.add(x, y);
+                    x = step(random, x, Protocol.CANVAS_WIDTH);
+                    y = step(random, y, Protocol.CANVAS_HEIGHT);
+                }
+                out.write(frame, 0, BinaryProtocol.encodePolyline(polyline, frame));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    // соседняя точка штриха, как от мыши
+    private static int step(Random random, int value, int limit) {
+        return Math.max(0, Math.min(limit - 1, value + random.nextInt(21) - 10));
+    }
+
+    private static int countSegments(byte[] stream) {
+        int[] count = new int[1];
+        decoder.feed(stream, 0, stream.length, frames((s) -> count[0]++, (p) -> count[0] += p.getCount() - 1));
+        return count[0];
+    }
+}
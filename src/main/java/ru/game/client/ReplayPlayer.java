@@ -0,0 +1,162 @@
+package ru.game.client;
+
+import ru.game.protocol.StrokePolyline;
+import ru.game.storage.GameStorage;
+import ru.game.storage.ReplayReader;
+import ru.game.storage.ReplayWriter;
+
+import javax.swing.*;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * просмотр записанных раундов в обычном игровом окне
+ * раунды читаются из папки по одному и показываются с той же
+ * скоростью что в игре, быстрее или медленнее
+ *
+ * запуск: ReplayPlayer [скорость] [комната] [папка]
+ * скорость 2 - вдвое быстрее, 0 - без пауз; комната 0 - все комнаты
+ * клиент окна ни к чему не подключен, кнопки окна ничего не отправляют
+ */
+public class ReplayPlayer {
+    private static final long ROUND_PAUSE_MS = 2000; // пауза между раундами как в игре
+
+    private final GameWindow window;
+    private final double speed;
+    private long roundStart;  // System.nanoTime() начала показа раунда
+
+    ReplayPlayer(GameWindow window, double speed) {
+        this.window = window;
+        this.speed = speed;
+    }
+
+    public static void main(String[] args) {
+        double speed = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+        long room = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        String directory = args.length > 2 ? args[2] : GameStorage.REPLAY_DIR;
+
+        GameClient offline = new GameClient("просмотр");
+        GameWindow[] window = new GameWindow[1];
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                window[0] = new GameWindow(offline);
+                window[0].setTitle("🎬 Просмотр записей: " + directory);
+                window[0].setVisible(true);
+            });
+        } catch (Exception e) {
+            System.err.println("Не удалось открыть окно: " + e.getMessage());
+            return;
+        }
+        window[0].setRole(true); // как у рисующего: слово раунда видно
+
+        ReplayPlayer player = new ReplayPlayer(window[0], speed);
+        try (ReplayReader reader = new ReplayReader(directory)) {
+            int shown = 0;
+            ReplayReader.Round round;
+            while ((round = reader.next()) != null) {
+                if (room != 0 && round.getRoomId() != room) continue;
+                player.play(round);
+                shown++;
+            }
+            window[0].addChatMessage("СИСТЕМА", "Записи кончились, показано раундов: " + shown);
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения записей: " + e.getMessage());
+            window[0].showError("Ошибка чтения записей: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ПОКАЗ ОДНОГО РАУНДА
+    // события ждут своего времени от начала раунда, деленного на скорость
+    void play(ReplayReader.Round round) throws InterruptedException {
+        String[] players = round.getPlayers();
+        window.clearCanvas();
+        window.setWord(round.getWord());
+        window.updateScore(String.join(",", players));
+        window.addChatMessage("СИСТЕМА", "Комната " + round.getRoomId() + ", "
+                + new SimpleDateFormat("dd.MM.yyyy HH:mm:ss").format(new Date(round.getStartTime()))
+                + ", рисует " + round.getDrawer());
+
+        roundStart = System.nanoTime();
+        boolean complete = round.events(new ReplayReader.Handler() {
+            @Override
+            public void onStroke(long time, StrokePolyline polyline) {
+                waitFor(time);
+                window.drawPolyline(polyline);
+            }
+
+            @Override
+            public void onClear(long time) {
+                waitFor(time);
+                window.clearCanvas();
+            }
+
+            @Override
+            public void onUndo(long time, int strokeId) {
+                waitFor(time);
+                window.undoStroke(strokeId);
+            }
+
+            @Override
+            public void onGuess(long time, String player, String text) {
+                waitFor(time);
+                window.addChatMessage(player + "(угадывает)", text);
+            }
+
+            @Override
+            public void onChat(long time, String player, String text) {
+                waitFor(time);
+                window.addChatMessage(String.valueOf(player), text);
+            }
+
+            @Override
+            public void onEnd(long time, int outcome, String winner) {
+                waitFor(time);
+                window.addChatMessage("СИСТЕМА", outcomeText(outcome, winner) + " Слово: " + round.getWord());
+            }
+        });
+        if (!complete) {
+            window.addChatMessage("СИСТЕМА", "Запись раунда оборвана");
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+        sleep(ROUND_PAUSE_MS);
+    }
+
+    private static String outcomeText(int outcome, String winner) {
+        switch (outcome) {
+            case ReplayWriter.OUTCOME_GUESSED:
+                return winner + " угадал(а)!";
+            case ReplayWriter.OUTCOME_TIMEOUT:
+                return "Время вышло!";
+            case ReplayWriter.OUTCOME_ABANDONED:
+                return "Игрок вышел, раунд прерван.";
+            default:
+                return "Раунд окончен.";
+        }
+    }
+
+    // ждем до момента события, отсчет от начала раунда, а не от прошлого события,
+    // поэтому ошибки sleep не накапливаются
+    private void waitFor(long time) {
+        if (speed <= 0) return;
+        long due = roundStart + (long) (time * 1_000_000L / speed);
+        long left = due - System.nanoTime();
+        if (left > 0) {
+            try {
+                Thread.sleep(left / 1_000_000L, (int) (left % 1_000_000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void sleep(long ms) throws InterruptedException {
+        if (speed > 0) {
+            Thread.sleep((long) (ms / speed));
+        }
+    }
+}
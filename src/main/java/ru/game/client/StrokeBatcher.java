@@ -0,0 +1,74 @@
+package ru.game.client;
+
+import ru.game.protocol.StrokePolyline;
+
+import javax.swing.Timer;
+
+/**
+ * собирает точки штриха рисующего и отправляет их пачками
+ * раньше каждое движение мыши уходило отдельным DRAW с flush,
+ * теперь точки копятся и уходят одним STROKE раз в FLUSH_MS
+ * или когда набралось MAX_POINTS, и сразу при отпускании мыши
+ *
+ * все методы вызываются только из потока Swing (EDT),
+ * таймер тоже срабатывает в нем, поэтому синхронизация не нужна
+ */
+class StrokeBatcher {
+    static final int FLUSH_MS = 16;      // примерно один кадр экрана
+    static final int MAX_POINTS = 64;    // больше точек не ждем таймер
+
+    private final GameClient client;
+    private final StrokePolyline pending;
+    private final Timer timer;
+    private int strokeId;                // номер текущего штриха
+
+    StrokeBatcher(GameClient client) {
+        this.client = client;
+        this.pending = new StrokePolyline();
+        this.timer = new Timer(FLUSH_MS, e -> flush());
+        this.timer.setRepeats(false);
+    }
+
+    // нажали мышь: новый штрих с первой точкой
+    void begin(int x, int y, int color) {
+        flush();
+        strokeId++;
+        pending.reset(strokeId, color);
+        pending.add(x, y);
+    }
+
+    // очередная точка при перетаскивании
+    void add(int x, int y) {
+        if (pending.getCount() == 0) return; // штрих не начат
+        pending.add(x, y);
+        if (pending.getCount() >= MAX_POINTS) {
+            flush();
+        } else if (!timer.isRunning()) {
+            timer.start();
+        }
+    }
+
+    // номер текущего штриха, им же помечены линии на своем холсте
+    int getStrokeId() {
+        return strokeId;
+    }
+
+    // отпустили мышь: отправляем остаток сразу
+    void end() {
+        flush();
+    }
+
+    // отправить накопленное, последняя точка остается началом следующей пачки,
+    // чтобы у получателя куски штриха соединились
+    void flush() {
+        timer.stop();
+        int count = pending.getCount();
+        if (count < 2) return; // одна точка еще не линия
+        client.sendStroke(pending);
+
+        int lastX = pending.getX(count - 1);
+        int lastY = pending.getY(count - 1);
+        pending.reset(strokeId, pending.getColor());
+        pending.add(lastX, lastY);
+    }
+}
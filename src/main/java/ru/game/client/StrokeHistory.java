@@ -0,0 +1,76 @@
+package ru.game.client;
+
+import ru.game.protocol.Protocol;
+
+/**
+ * номера своих штрихов рисующего для отмены и возврата
+ * хранится не больше Protocol.MAX_UNDO последних, как и у сервера:
+ * более старые штрихи отменить уже нельзя
+ * новый штрих очищает возврат, как и на сервере
+ * вызывать только из потока Swing
+ */
+class StrokeHistory {
+    private final int[] done = new int[Protocol.MAX_UNDO];   // кольцо, последний штрих сверху
+    private int doneTop;     // индекс следующей записи в кольце
+    private int doneCount;
+    private final int[] undone = new int[Protocol.MAX_UNDO]; // стек отмененных
+    private int undoneCount;
+
+    // начат новый штрих
+    void push(int strokeId) {
+        done[doneTop] = strokeId;
+        doneTop = (doneTop + 1) % done.length;
+        doneCount = Math.min(doneCount + 1, done.length);
+        undoneCount = 0;
+    }
+
+    // номер штриха для отмены, 0 если отменять нечего
+    int undo() {
+        if (doneCount == 0) return 0;
+        doneTop = (doneTop - 1 + done.length) % done.length;
+        doneCount--;
+        int strokeId = done[doneTop];
+        undone[undoneCount++] = strokeId;
+        return strokeId;
+    }
+
+    // номер штриха для возврата, 0 если возвращать нечего
+    int redo() {
+        if (undoneCount == 0) return 0;
+        int strokeId = undone[--undoneCount];
+        done[doneTop] = strokeId;
+        doneTop = (doneTop + 1) % done.length;
+        doneCount++;
+        return strokeId;
+    }
+
+    // сервер не принял отмену или возврат: штрих остается каким его видят все,
+    // просить сервер о нем еще раз бесполезно, поэтому он пропадает из истории
+    void forget(int strokeId) {
+        for (int i = undoneCount - 1; i >= 0; i--) {
+            if (undone[i] == strokeId) {
+                System.arraycopy(undone, i + 1, undone, i, undoneCount - i - 1);
+                undoneCount--;
+                return;
+            }
+        }
+        for (int i = 1; i <= doneCount; i++) {
+            int at = (doneTop - i + done.length) % done.length;
+            if (done[at] == strokeId) {
+                for (int j = i - 1; j >= 1; j--) { // более новые сдвигаем на его место
+                    int next = (doneTop - j + done.length) % done.length;
+                    done[at] = done[next];
+                    at = next;
+                }
+                doneTop = (doneTop - 1 + done.length) % done.length;
+                doneCount--;
+                return;
+            }
+        }
+    }
+
+    void clear() {
+        doneCount = 0;
+        undoneCount = 0;
+    }
+}
@@ -0,0 +1,159 @@
+package ru.game.client;
+
+import ru.game.protocol.StrokePolyline;
+import ru.game.protocol.StrokeSegment;
+
+import java.awt.image.BufferedImage;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * очередь рисунка от сети к окну без блокировок
+ * один писатель (поток чтения сообщений) и один читатель (поток Swing):
+ * писатель кладет линии в кольцевой массив int и двигает tail,
+ * читатель забирает все что накопилось и двигает head
+ * на отрезок не создается ни одного объекта
+ *
+ * запись: [вид | цвет << 8 | точек << 16], [номер штриха] и точки парами x, y
+ * картинки редкие, они лежат в обычной очереди, в кольце только отметка,
+ * чтобы очистка и снимок оставались на своем месте среди линий
+ * отмена штриха: [вид], [номер штриха]
+ */
+class StrokeQueue {
+    static final int CAPACITY = 1 << 16;  // int в кольце, степень двойки
+    private static final int MASK = CAPACITY - 1;
+
+    private static final int LINE = 1;
+    private static final int CLEAR = 2;
+    private static final int IMAGE = 3;
+    private static final int UNDO = 4;
+
+    /**
+     * что делать с записями очереди, вызывается в потоке читателя
+     */
+    interface Handler {
+        // xs и ys переиспользуются, после вызова они перезапишутся
+        // strokeId 0 у отдельных отрезков DRAW
+        void onLine(int[] xs, int[] ys, int count, int color, int strokeId);
+
+        void onClear();
+
+        void onImage(BufferedImage image);
+
+        void onUndo(int strokeId);
+    }
+
+    private final int[] buffer = new int[CAPACITY];
+    private final AtomicLong head = new AtomicLong();  // пишет только читатель
+    private final AtomicLong tail = new AtomicLong();  // пишет только писатель
+    private long cachedHead;                           // head глазами писателя
+    private final Queue<BufferedImage> images = new ConcurrentLinkedQueue<>();
+    private final int[] xs = new int[StrokePolyline.MAX_POINTS]; // только читатель
+    private final int[] ys = new int[StrokePolyline.MAX_POINTS];
+
+    // ПИСАТЕЛЬ
+    // false если места нет, тогда надо дать читателю разобрать очередь
+
+    boolean offerSegment(StrokeSegment segment) {
+        long t = tail.get();
+        if (!hasRoom(t, 6)) return false;
+        buffer[(int) t & MASK] = LINE | segment.getColor() << 8 | 2 << 16;
+        buffer[(int) (t + 1) & MASK] = 0;
+        buffer[(int) (t + 2) & MASK] = segment.getX1();
+        buffer[(int) (t + 3) & MASK] = segment.getY1();
+        buffer[(int) (t + 4) & MASK] = segment.getX2();
+        buffer[(int) (t + 5) & MASK] = segment.getY2();
+        tail.lazySet(t + 6); // публикуем запись целиком
+        return true;
+    }
+
+    boolean offerPolyline(StrokePolyline polyline) {
+        int count = polyline.getCount();
+        long t = tail.get();
+        int size = 2 + 2 * count;
+        if (!hasRoom(t, size)) return false;
+        buffer[(int) t & MASK] = LINE | polyline.getColor() << 8 | count << 16;
+        buffer[(int) (t + 1) & MASK] = polyline.getStrokeId();
+        for (int i = 0; i < count; i++) {
+            buffer[(int) (t + 2 + 2 * i) & MASK] = polyline.getX(i);
+            buffer[(int) (t + 3 + 2 * i) & MASK] = polyline.getY(i);
+        }
+        tail.lazySet(t + size);
+        return true;
+    }
+
+    boolean offerClear() {
+        long t = tail.get();
+        if (!hasRoom(t, 1)) return false;
+        buffer[(int) t & MASK] = CLEAR;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    boolean offerImage(BufferedImage image) {
+        long t = tail.get();
+        if (!hasRoom(t, 1)) return false;
+        images.add(image); // раньше отметки, читатель ее найдет
+        buffer[(int) t & MASK] = IMAGE;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    boolean offerUndo(int strokeId) {
+        long t = tail.get();
+        if (!hasRoom(t, 2)) return false;
+        buffer[(int) t & MASK] = UNDO;
+        buffer[(int) (t + 1) & MASK] = strokeId;
+        tail.lazySet(t + 2);
+        return true;
+    }
+
+    // head читаем заново только когда по старому значению места не хватает
+    private boolean hasRoom(long t, int size) {
+        if (t + size - cachedHead <= CAPACITY) return true;
+        cachedHead = head.get();
+        return t + size - cachedHead <= CAPACITY;
+    }
+
+    // ЧИТАТЕЛЬ
+
+    /**
+     * разобрать все что успел положить писатель, вернуть число записей
+     */
+    int drain(Handler handler) {
+        long h = head.get();
+        long t = tail.get();
+        int records = 0;
+        while (h != t) {
+            int header = buffer[(int) h & MASK];
+            int kind = header & 0xFF;
+            if (kind == LINE) {
+                int count = header >>> 16;
+                int strokeId = buffer[(int) (h + 1) & MASK];
+                for (int i = 0; i < count; i++) {
+                    xs[i] = buffer[(int) (h + 2 + 2 * i) & MASK];
+                    ys[i] = buffer[(int) (h + 3 + 2 * i) & MASK];
+                }
+                h += 2 + 2 * count;
+                head.lazySet(h); // место свободно, дальше работаем с копией
+                handler.onLine(xs, ys, count, (header >>> 8) & 0xFF, strokeId);
+            } else if (kind == UNDO) {
+                int strokeId = buffer[(int) (h + 1) & MASK];
+                h += 2;
+                head.lazySet(h);
+                handler.onUndo(strokeId);
+            } else {
+                h++;
+                head.lazySet(h);
+                if (kind == CLEAR) {
+                    handler.onClear();
+                } else {
+                    handler.onImage(images.poll());
+                }
+            }
+            records++;
+        }
+        return records;
+    }
+}
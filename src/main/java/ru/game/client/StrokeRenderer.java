@@ -0,0 +1,109 @@
+package ru.game.client;
+
+import ru.game.protocol.Protocol;
+import ru.game.protocol.StrokePolyline;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
+
+/**
+ * рисование линий на картинке холста без объектов на отрезок
+ * цвет приходит номером палитры и берется из готового массива Color,
+ * толщина линии в протоколе одна, поэтому штрих создается один раз
+ * и ставится в Graphics2D при создании
+ *
+ * ломаная рисуется через один переиспользуемый Path2D:
+ * Graphics2D.drawPolyline сам собирает новый Path2D на каждый вызов,
+ * а пиксели у обоих способов одинаковые
+ * отрезок рисуется drawLine, он ничего не создает
+ *
+ * заодно копится прямоугольник нарисованного, чтобы холст перерисовал
+ * только его; вызывать из одного потока (потока Swing)
+ */
+class StrokeRenderer {
+    // цвета палитры Protocol.COLORS, номер цвета = индекс
+    static final Color[] PALETTE = palette();
+    static final BasicStroke LINE_STROKE = new BasicStroke(Protocol.LINE_WIDTH);
+
+    private final Graphics2D g;
+    private final Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, StrokePolyline.MAX_POINTS);
+    // нарисовано с прошлого resetDirty, в координатах картинки
+    private int dirtyMinX, dirtyMinY, dirtyMaxX, dirtyMaxY;
+
+    StrokeRenderer(Graphics2D g) {
+        this.g = g;
+        g.setStroke(LINE_STROKE);
+        resetDirty();
+    }
+
+    private static Color[] palette() {
+        Color[] palette = new Color[Protocol.COLOR_RGB.length];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = new Color(Protocol.COLOR_RGB[i]);
+        }
+        return palette;
+    }
+
+    /**
+     * цвет по номеру палитры, неизвестный номер черный
+     */
+    static Color color(int index) {
+        return index >= 0 && index < PALETTE.length ? PALETTE[index] : PALETTE[0];
+    }
+
+    void line(int x1, int y1, int x2, int y2, int color) {
+        g.setColor(color(color));
+        g.drawLine(x1, y1, x2, y2);
+        markDirty(x1, y1);
+        markDirty(x2, y2);
+    }
+
+    /**
+     * ломаная из count точек массивов xs, ys начиная с from
+     */
+    void polyline(int[] xs, int[] ys, int from, int count, int color) {
+        if (count <= 0) return;
+        if (count == 1) {
+            markDirty(xs[from], ys[from]); // точка без линии не видна, но место отметим
+            return;
+        }
+        if (count == 2) {
+            line(xs[from], ys[from], xs[from + 1], ys[from + 1], color);
+            return;
+        }
+        path.reset();
+        path.moveTo(xs[from], ys[from]);
+        markDirty(xs[from], ys[from]);
+        for (int i = from + 1; i < from + count; i++) {
+            path.lineTo(xs[i], ys[i]);
+            markDirty(xs[i], ys[i]);
+        }
+        g.setColor(color(color));
+        g.draw(path);
+    }
+
+    private void markDirty(int x, int y) {
+        if (x < dirtyMinX) dirtyMinX = x;
+        if (x > dirtyMaxX) dirtyMaxX = x;
+        if (y < dirtyMinY) dirtyMinY = y;
+        if (y > dirtyMaxY) dirtyMaxY = y;
+    }
+
+    boolean isDirty() {
+        return dirtyMinX <= dirtyMaxX;
+    }
+
+    int getDirtyMinX() { return dirtyMinX; }
+    int getDirtyMinY() { return dirtyMinY; }
+    int getDirtyMaxX() { return dirtyMaxX; }
+    int getDirtyMaxY() { return dirtyMaxY; }
+
+    void resetDirty() {
+        dirtyMinX = Integer.MAX_VALUE;
+        dirtyMinY = Integer.MAX_VALUE;
+        dirtyMaxX = Integer.MIN_VALUE;
+        dirtyMaxY = Integer.MIN_VALUE;
+    }
+}
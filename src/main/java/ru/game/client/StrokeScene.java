@@ -0,0 +1,268 @@
+package ru.game.client;
+
+import ru.game.protocol.Protocol;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * рисунок раунда как набор ломаных в координатах холста 600x500,
+ * а не как картинка: из него холст рисует себя в любом размере окна
+ *
+ * точки всех ломаных лежат подряд в двух массивах int, у куска только
+ * начало, число точек, цвет, номер штриха и рамка, по которой при
+ * перерисовке части холста пропускаются далекие куски
+ * если кусок продолжает последний (тот же штрих и цвет, первая точка
+ * совпадает с последней), точки дописываются к нему, поэтому штрих
+ * из сотни пачек или движений мыши хранится одним куском
+ *
+ * снимок рисунка от сервера (картинка) хранится как фон под ломаными
+ *
+ * отмена штриха только прячет его куски: рисующий может вернуть штрих,
+ * а как только добавляется новый кусок, спрятанные удаляются насовсем
+ * память ограничена: когда точек больше MAX_POINTS, куски старше последних
+ * Protocol.MAX_UNDO штрихов рисуются в фон (контрольную точку) 600x500
+ * и удаляются, отменить их уже нельзя, а при большом окне они чуть менее четкие
+ * вызывать только из потока Swing
+ */
+class StrokeScene {
+    static final int MAX_POINTS = 200_000;  // ~1.6 МБ точек, дальше старое рисуется в фон
+
+    private int[] xs = new int[1024];
+    private int[] ys = new int[1024];
+    private int points;
+
+    private int[] first = new int[64];     // первая точка куска
+    private int[] counts = new int[64];    // точек в куске
+    private int[] strokeIds = new int[64]; // номер штриха, 0 если неизвестен
+    private byte[] colors = new byte[64];  // номер палитры
+    private boolean[] hidden = new boolean[64]; // кусок отменен
+    private int hiddenPieces;
+    private int[] bounds = new int[64 * 4]; // minX, minY, maxX, maxY куска
+    private int pieces;
+
+    private BufferedImage background;      // снимок от сервера или контрольная точка, может быть null
+    private int flattenAt = MAX_POINTS;    // точек до следующей попытки flatten
+
+    /**
+     * добавить ломаную из count точек начиная с from
+     */
+    void add(int[] pxs, int[] pys, int from, int count, int color, int strokeId) {
+        if (count <= 0) return;
+        if (hiddenPieces > 0) {
+            dropHidden(); // рисуют дальше: отмененное уже не вернуть
+        }
+        int last = pieces - 1;
+        if (last >= 0 && strokeIds[last] == strokeId && colors[last] == color
+                && xs[points - 1] == pxs[from] && ys[points - 1] == pys[from]) {
+            // продолжение того же штриха: первая точка уже есть
+            append(pxs, pys, from + 1, count - 1, last);
+            counts[last] += count - 1;
+            return;
+        }
+        if (pieces == first.length) {
+            int size = pieces * 2;
+            first = Arrays.copyOf(first, size);
+            counts = Arrays.copyOf(counts, size);
+            strokeIds = Arrays.copyOf(strokeIds, size);
+            colors = Arrays.copyOf(colors, size);
+            hidden = Arrays.copyOf(hidden, size);
+            bounds = Arrays.copyOf(bounds, size * 4);
+        }
+        int piece = pieces++;
+        first[piece] = points;
+        counts[piece] = count;
+        strokeIds[piece] = strokeId;
+        colors[piece] = (byte) color;
+        hidden[piece] = false;
+        bounds[piece * 4] = Integer.MAX_VALUE;
+        bounds[piece * 4 + 1] = Integer.MAX_VALUE;
+        bounds[piece * 4 + 2] = Integer.MIN_VALUE;
+        bounds[piece * 4 + 3] = Integer.MIN_VALUE;
+        append(pxs, pys, from, count, piece);
+        if (points > flattenAt) {
+            flatten();
+        }
+    }
+
+    // дописать точки в конец массивов и расширить рамку куска
+    private void append(int[] pxs, int[] pys, int from, int count, int piece) {
+        if (points + count > xs.length) {
+            int size = Math.max(xs.length * 2, points + count);
+            xs = Arrays.copyOf(xs, size);
+            ys = Arrays.copyOf(ys, size);
+        }
+        System.arraycopy(pxs, from, xs, points, count);
+        System.arraycopy(pys, from, ys, points, count);
+        int b = piece * 4;
+        for (int i = points; i < points + count; i++) {
+            bounds[b] = Math.min(bounds[b], xs[i]);
+            bounds[b + 1] = Math.min(bounds[b + 1], ys[i]);
+            bounds[b + 2] = Math.max(bounds[b + 2], xs[i]);
+            bounds[b + 3] = Math.max(bounds[b + 3], ys[i]);
+        }
+        points += count;
+    }
+
+    /**
+     * очистить рисунок вместе с фоном
+     */
+    void clear() {
+        points = 0;
+        pieces = 0;
+        hiddenPieces = 0;
+        background = null;
+        flattenAt = MAX_POINTS;
+    }
+
+    // ОТМЕНА И ВОЗВРАТ
+    // area получает рамку штриха (minX, minY, maxX, maxY), чтобы перерисовать только ее
+
+    /**
+     * спрятать куски штриха, false если их нет
+     */
+    boolean hide(int strokeId, int[] area) {
+        return setHidden(strokeId, true, area);
+    }
+
+    /**
+     * показать спрятанные куски штриха, false если их нет
+     */
+    boolean show(int strokeId, int[] area) {
+        return setHidden(strokeId, false, area);
+    }
+
+    private boolean setHidden(int strokeId, boolean value, int[] area) {
+        area[0] = Integer.MAX_VALUE;
+        area[1] = Integer.MAX_VALUE;
+        area[2] = Integer.MIN_VALUE;
+        area[3] = Integer.MIN_VALUE;
+        boolean found = false;
+        for (int piece = 0; piece < pieces; piece++) {
+            if (strokeIds[piece] != strokeId || hidden[piece] == value) continue;
+            hidden[piece] = value;
+            hiddenPieces += value ? 1 : -1;
+            int b = piece * 4;
+            area[0] = Math.min(area[0], bounds[b]);
+            area[1] = Math.min(area[1], bounds[b + 1]);
+            area[2] = Math.max(area[2], bounds[b + 2]);
+            area[3] = Math.max(area[3], bounds[b + 3]);
+            found = true;
+        }
+        return found;
+    }
+
+    // удалить спрятанные куски, остальные сдвигаются к началу
+    private void dropHidden() {
+        int keepPieces = 0;
+        int keepPoints = 0;
+        for (int piece = 0; piece < pieces; piece++) {
+            if (hidden[piece]) continue;
+            keepPoints = move(piece, keepPieces, keepPoints);
+            keepPieces++;
+        }
+        pieces = keepPieces;
+        points = keepPoints;
+        hiddenPieces = 0;
+    }
+
+    // перенести кусок from на место to с точками с позиции point, вернуть конец его точек
+    private int move(int from, int to, int point) {
+        int count = counts[from];
+        System.arraycopy(xs, first[from], xs, point, count);
+        System.arraycopy(ys, first[from], ys, point, count);
+        first[to] = point;
+        counts[to] = count;
+        strokeIds[to] = strokeIds[from];
+        colors[to] = colors[from];
+        hidden[to] = hidden[from];
+        System.arraycopy(bounds, from * 4, bounds, to * 4, 4);
+        return point + count;
+    }
+
+    // КОНТРОЛЬНАЯ ТОЧКА
+    // куски старше последних MAX_UNDO штрихов рисуются в фон и удаляются
+    private void flatten() {
+        int end = undoHorizon();
+        if (end == 0) {
+            flattenAt = points + MAX_POINTS / 2; // все точки в последних штрихах, ждем следующих
+            return;
+        }
+
+        BufferedImage checkpoint = new BufferedImage(Protocol.CANVAS_WIDTH, Protocol.CANVAS_HEIGHT,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = checkpoint.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, Protocol.CANVAS_WIDTH, Protocol.CANVAS_HEIGHT);
+            if (background != null) {
+                g.drawImage(background, 0, 0, null);
+            }
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            StrokeRenderer renderer = new StrokeRenderer(g);
+            for (int piece = 0; piece < end; piece++) {
+                if (!hidden[piece]) {
+                    renderer.polyline(xs, ys, first[piece], counts[piece], colors[piece]);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        background = checkpoint;
+
+        int keepPoints = 0;
+        for (int piece = end; piece < pieces; piece++) {
+            keepPoints = move(piece, piece - end, keepPoints);
+        }
+        pieces -= end;
+        points = keepPoints;
+        flattenAt = Math.max(MAX_POINTS, points + MAX_POINTS / 2);
+    }
+
+    // первый кусок последних MAX_UNDO штрихов, 0 если штрихов меньше
+    private int undoHorizon() {
+        int strokes = 0;
+        for (int piece = pieces - 1; piece >= 0; piece--) {
+            if (piece == pieces - 1 || strokeIds[piece] != strokeIds[piece + 1]) {
+                strokes++;
+                if (strokes > Protocol.MAX_UNDO) return piece + 1;
+            }
+        }
+        return 0;
+    }
+
+    void setBackground(BufferedImage background) {
+        this.background = background;
+    }
+
+    BufferedImage getBackground() {
+        return background;
+    }
+
+    int getPieces() {
+        return pieces;
+    }
+
+    int getPoints() {
+        return points;
+    }
+
+    /**
+     * нарисовать куски, задевающие прямоугольник (minX, minY)-(maxX, maxY)
+     * с запасом pad на толщину линии; фон рисует вызывающий
+     */
+    void render(StrokeRenderer renderer, int minX, int minY, int maxX, int maxY, int pad) {
+        for (int piece = 0; piece < pieces; piece++) {
+            if (hidden[piece]) continue;
+            int b = piece * 4;
+            if (bounds[b] - pad > maxX || bounds[b + 2] + pad < minX
+                    || bounds[b + 1] - pad > maxY || bounds[b + 3] + pad < minY) {
+                continue;
+            }
+            renderer.polyline(xs, ys, first[piece], counts[piece], colors[piece]);
+        }
+    }
+}
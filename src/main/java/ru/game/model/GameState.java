@@ -2,7 +2,6 @@ package ru.game.model;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 
 /**
  * Состояние игры
@@ -14,31 +13,17 @@ public class GameState {
     private boolean gameStarted;
     private int roundNumber;
     
-    // Слова для игры
-    private static final String[] WORDS = {
-            "КОТ", "СОБАКА", "ДОМ", "МАШИНА", "СОЛНЦЕ", "ДЕРЕВО",
-            "ЯБЛОКО", "КНИГА", "СТОЛ", "СТУЛ", "ОКНО", "ДВЕРЬ",
-            "МОРЕ", "ГОРА", "ЦВЕТОК", "ПТИЦА", "РЫБА", "ЛЕВ",
-            "СЛОН", "МЕДВЕДЬ", "ЗАЯЦ", "ЛИСА", "ВОЛК", "КОРОВА",
-            "ТЕЛЕФОН", "КОМПЬЮТЕР", "ПЛАНШЕТ", "ТЕЛЕВИЗОР", "ХОЛОДИЛЬНИК",
-            "МИКРОВОЛНОВКА", "ЧАЙНИК", "ТОСТЕР", "ФЕН", "УТЮГ", "ПЫЛЕСОС",
-            "СКОВОРОДА", "КАСТРЮЛЯ", "ТАРЕЛКА", "ВИЛКА", "ЛОЖКА", "НОЖ",
-            "КРОВАТЬ", "ШКАФ", "КОМОД", "ЗЕРКАЛО", "КОВЕР", "ПОДУШКА",
-            "ОДЕЯЛО", "ПРОСТЫНЯ", "ПОЛОТЕНЦЕ", "МЫЛО", "ШАМПУНЬ", "ЗУБНАЯЩЕТКА",
-            "ПАСТА", "РАЗЕТКА", "ВЫКЛЮЧАТЕЛЬ", "ЛАМПОЧКА", "ПРОВОД", "БАТАРЕЙКА",
-            "АККУМУЛЯТОР", "ЗАРЯДКА", "НАУШНИКИ", "КОЛОНКИ", "МИКРОФОН", "КАМЕРА",
-            "ФОТОАППАРАТ", "ВИДЕОКАМЕРА", "ПРОЕКТОР", "ЭКРАН", "КЛАВИАТУРА", "МЫШКА",
-            "КОЛЕСО", "РУЛЬ", "ФАРА", "ДВИГАТЕЛЬ", "АККУМУЛЯТОР", "ШИНА",
-            "ЛОДКА", "САМОЛЕТ", "ВЕРТОЛЕТ", "ПОЕЗД", "ТРАМВАЙ", "ТРОЛЛЕЙБУС",
-            "ВЕЛОСИПЕД", "САМОКАТ", "РОЛИКИ", "СКЕЙТБОРД", "ЛЫЖИ", "СНЕГОХОД",
-            "ПАРОВОЗ", "ТАНКЕР", "ПАРОМ", "ЯХТА", "КАНОЭ", "БАЙДАРКА",
-            "ПАРАШЮТ", "ВОЗДУШНЫЙШАР", "ДИРИЖАБЛЬ", "РАКЕТА", "СПУТНИК", "ТЕЛЕСКОП"
-    };
+    private final WordDictionary.Cursor words; // слова комнаты без повторов
+    // -Dgame.wordCategory=животные и -Dgame.wordDifficulty=1..3, без них весь словарь
+    private static final String CATEGORY = System.getProperty("game.wordCategory");
+    private static final int DIFFICULTY =
+            Integer.getInteger("game.wordDifficulty", WordDictionary.MAX_DIFFICULTY);
     
     public GameState() {
         this.players = new ArrayList<>();
         this.gameStarted = false;
         this.roundNumber = 0;
+        this.words = WordDictionary.getShared().cursor(CATEGORY, DIFFICULTY);
     }
     
     public List<Player> getPlayers() {
@@ -65,9 +50,9 @@ public class GameState {
         this.currentWord = word;
     }
     
+    // следующее слово комнаты, пока не пройден весь словарь слова не повторяются
     public String getRandomWord() {
-        Random random = new Random();
-        return WORDS[random.nextInt(WORDS.length)];
+        return words.next();
     }
     
     public void nextRound() {
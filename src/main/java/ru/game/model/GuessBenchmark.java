@@ -0,0 +1,49 @@
+package ru.game.model;
+
+/**
+ * скорость проверки догадок на типичных случаях
+ * запуск: java ru.game.model.GuessBenchmark [повторов], по умолчанию 2000000
+ *
+ * каждый случай сначала прогревается тем же числом вызовов,
+ * потом замеряется; результат копится в blackhole, чтобы JIT
+ * не выбросил вызовы
+ */
+public class GuessBenchmark {
+    private static final String[][] CASES = {
+            // слово, догадка, что это
+            {"ВЕЛОСИПЕД", "велосипед", "угадал"},
+            {"ВЕЛОСИПЕД", "велосипет", "опечатка"},
+            {"ЁЛКА", "елка", "ё/е"},
+            {"ЗУБНАЯЩЕТКА", "зубная щетка", "пробел"},
+            {"ВЕЛОСИПЕД", "самокатик", "мимо, та же длина"},
+            {"КОТ", "мне кажется это большая собака", "длинный текст"},
+            {"ХОЛОДИЛЬНИК", "ааааааааааааааааааааааааааааааааааааааааааааааааааааааааааааааааааааааа", "спам"},
+    };
+
+    private static long blackhole;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        GuessMatcher matcher = new GuessMatcher();
+
+        System.out.printf("%-20s %-8s %10s%n", "случай", "итог", "нс/вызов");
+        for (String[] guessCase : CASES) {
+            String word = guessCase[0];
+            String guess = guessCase[1];
+            run(matcher, word, guess, iterations); // прогрев
+            long start = System.nanoTime();
+            run(matcher, word, guess, iterations);
+            double ns = (System.nanoTime() - start) / (double) iterations;
+            System.out.printf("%-20s %-8s %10.1f%n", guessCase[2], matcher.match(word, guess), ns);
+        }
+        if (blackhole == 42) System.out.println();
+    }
+
+    private static void run(GuessMatcher matcher, String word, String guess, int iterations) {
+        long sum = 0;
+        for (int i = 0; i < iterations; i++) {
+            sum += matcher.match(word, guess).ordinal();
+        }
+        blackhole += sum;
+    }
+}
@@ -0,0 +1,136 @@
+package ru.game.model;
+
+/**
+ * проверка догадки: угадал, почти угадал или мимо
+ *
+ * слово и догадка приводятся к одному виду: заглавные буквы, Ё как Е,
+ * пробелы, дефисы и знаки не считаются ("зубная щетка" = ЗУБНАЯЩЕТКА)
+ * после этого совпадение - угадал, а если отличается на пару букв
+ * (расстояние Левенштейна не больше closeDistance) - почти угадал
+ *
+ * расстояние считается только в полосе шириной 2k+1 вокруг диагонали
+ * и бросается, как только вся строка таблицы больше k, поэтому
+ * длинная чушь отсекается по длине или за несколько строк
+ * массивы переиспользуются: один объект на комнату, вызывать под ее блокировкой
+ */
+public class GuessMatcher {
+    public static final int MAX_GUESS = 64;  // букв догадки, дальше не смотрим (или длина слова + k)
+
+    public enum Result {
+        CORRECT,  // угадал
+        CLOSE,    // почти угадал, подсказываем только ему
+        MISS      // мимо
+    }
+
+    private String word;                         // слово для которого готов target
+    private char[] target = new char[0];
+    private int targetLength;
+    private char[] guess = new char[MAX_GUESS];
+    private int[] previous = new int[MAX_GUESS + 1];
+    private int[] current = new int[MAX_GUESS + 1];
+
+    public Result match(String word, String text) {
+        if (word == null || text == null) return Result.MISS;
+        if (!word.equals(this.word)) {
+            prepare(word);
+        }
+        int length = normalize(text, guess);
+        if (length <= 0) return Result.MISS;
+        if (length == targetLength && regionEquals(length)) {
+            return Result.CORRECT;
+        }
+        int k = closeDistance(targetLength);
+        return distance(guess, length, target, targetLength, k) <= k ? Result.CLOSE : Result.MISS;
+    }
+
+    /**
+     * сколько опечаток еще считается "почти": в коротком слове одна
+     */
+    static int closeDistance(int length) {
+        if (length <= 4) return 1;
+        if (length <= 8) return 2;
+        return 3;
+    }
+
+    private void prepare(String word) {
+        this.word = word;
+        if (target.length < word.length()) {
+            target = new char[word.length()];
+        }
+        targetLength = normalize(word, target);
+        if (targetLength < 0) targetLength = 0;
+        // догадка длиннее слова больше чем на k все равно мимо, а до этого
+        // должна помещаться целиком, иначе длинное слово не угадать
+        int longest = targetLength + closeDistance(targetLength);
+        if (guess.length < longest) {
+            guess = new char[longest];
+        }
+        if (previous.length < targetLength + 1) {
+            previous = new int[targetLength + 1];
+            current = new int[targetLength + 1];
+        }
+    }
+
+    private boolean regionEquals(int length) {
+        for (int i = 0; i < length; i++) {
+            if (guess[i] != target[i]) return false;
+        }
+        return true;
+    }
+
+    // НОРМАЛИЗАЦИЯ в out без создания строк
+    // -1 если букв больше чем помещается в out
+    static int normalize(String text, char[] out) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isLetterOrDigit(c)) continue;
+            c = Character.toUpperCase(c);
+            if (c == 'Ё') c = 'Е';
+            if (length == out.length) return -1;
+            out[length++] = c;
+        }
+        return length;
+    }
+
+    // РАССТОЯНИЕ ЛЕВЕНШТЕЙНА НЕ БОЛЬШЕ k
+    // k + 1 значит "больше k", точное значение тогда не нужно
+    private int distance(char[] a, int n, char[] b, int m, int k) {
+        if (Math.abs(n - m) > k) return k + 1;
+        int far = k + 1;
+        int[] prev = previous;
+        int[] cur = current;
+        for (int j = 0; j <= m; j++) {
+            prev[j] = Math.min(j, far);
+        }
+        for (int i = 1; i <= n; i++) {
+            int from = Math.max(1, i - k);
+            int to = Math.min(m, i + k);
+            int rowMin;
+            if (from == 1) {
+                cur[0] = Math.min(i, far);
+                rowMin = cur[0];
+            } else {
+                cur[from - 1] = far;  // левее полосы
+                rowMin = far;
+            }
+            char ca = a[i - 1];
+            for (int j = from; j <= to; j++) {
+                int value = prev[j - 1] + (ca == b[j - 1] ? 0 : 1);
+                value = Math.min(value, prev[j] + 1);
+                value = Math.min(value, cur[j - 1] + 1);
+                if (value > far) value = far;
+                cur[j] = value;
+                if (value < rowMin) rowMin = value;
+            }
+            if (to < m) {
+                cur[to + 1] = far;    // правее полосы, следующая строка его прочитает
+            }
+            if (rowMin > k) return far; // дальше только больше
+            int[] swap = prev;
+            prev = cur;
+            cur = swap;
+        }
+        return prev[m];
+    }
+}
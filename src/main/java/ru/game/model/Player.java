@@ -7,7 +7,8 @@ public class Player {
     
     private String nickname;
     private int score;
-    private boolean isDrawer; // true = рисует, false = угадывает
+    private int savedScore; // сколько из score уже записано в статистику
+    private volatile boolean isDrawer; // true = рисует, false = угадывает (читается без блокировки)
     
     public Player(String nickname) {
         this.nickname = nickname;
@@ -26,6 +27,15 @@ public class Player {
     public void addScore(int points) {
         this.score += points;
     }
+
+    /**
+     * очки набранные после прошлой записи в статистику, дальше они считаются записанными
+     */
+    public int takeUnsavedScore() {
+        int unsaved = score - savedScore;
+        savedScore = score;
+        return unsaved;
+    }
     
     public boolean isDrawer() {
         return isDrawer;
@@ -0,0 +1,282 @@
+package ru.game.model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * словарь слов для игры, один на весь сервер
+ * все слова лежат подряд в одном массиве символов, у слова только
+ * смещение, номер категории и сложность, поэтому 100 тысяч слов это
+ * пара мегабайт и никаких объектов на слово; одинаковые слова хранятся один раз
+ *
+ * комната берет слова через Cursor: три числа на комнату,
+ * массивы словаря общие, сколько бы комнат ни было
+ *
+ * файл словаря (-Dgame.words=файл, UTF-8): строка на слово
+ * СЛОВО;категория;сложность 1-3, категория и сложность можно не писать,
+ * строки с # пропускаются
+ * без файла берется встроенный список
+ */
+public class WordDictionary {
+    public static final String NO_CATEGORY = "общее";
+    public static final int MAX_DIFFICULTY = 3;
+
+    // встроенные слова: категория и слова через пробел
+    private static final String[][] BUILT_IN = {
+            {"животные", "КОТ СОБАКА ПТИЦА РЫБА ЛЕВ СЛОН МЕДВЕДЬ ЗАЯЦ ЛИСА ВОЛК КОРОВА"},
+            {"природа", "СОЛНЦЕ ДЕРЕВО ЯБЛОКО МОРЕ ГОРА ЦВЕТОК"},
+            {"дом", "ДОМ КНИГА СТОЛ СТУЛ ОКНО ДВЕРЬ КРОВАТЬ ШКАФ КОМОД ЗЕРКАЛО КОВЕР ПОДУШКА"
+                    + " ОДЕЯЛО ПРОСТЫНЯ ПОЛОТЕНЦЕ МЫЛО ШАМПУНЬ ЗУБНАЯЩЕТКА ПАСТА ФЕН УТЮГ ПЫЛЕСОС"},
+            {"кухня", "ХОЛОДИЛЬНИК МИКРОВОЛНОВКА ЧАЙНИК ТОСТЕР СКОВОРОДА КАСТРЮЛЯ ТАРЕЛКА ВИЛКА ЛОЖКА НОЖ"},
+            {"техника", "ТЕЛЕФОН КОМПЬЮТЕР ПЛАНШЕТ ТЕЛЕВИЗОР РАЗЕТКА ВЫКЛЮЧАТЕЛЬ ЛАМПОЧКА ПРОВОД"
+                    + " БАТАРЕЙКА АККУМУЛЯТОР ЗАРЯДКА НАУШНИКИ КОЛОНКИ МИКРОФОН КАМЕРА ФОТОАППАРАТ"
+                    + " ВИДЕОКАМЕРА ПРОЕКТОР ЭКРАН КЛАВИАТУРА МЫШКА ТЕЛЕСКОП"},
+            {"транспорт", "МАШИНА КОЛЕСО РУЛЬ ФАРА ДВИГАТЕЛЬ ШИНА ЛОДКА САМОЛЕТ ВЕРТОЛЕТ ПОЕЗД"
+                    + " ТРАМВАЙ ТРОЛЛЕЙБУС ВЕЛОСИПЕД САМОКАТ РОЛИКИ СКЕЙТБОРД ЛЫЖИ СНЕГОХОД ПАРОВОЗ"
+                    + " ТАНКЕР ПАРОМ ЯХТА КАНОЭ БАЙДАРКА ПАРАШЮТ ВОЗДУШНЫЙШАР ДИРИЖАБЛЬ РАКЕТА СПУТНИК"}
+    };
+
+    private static volatile WordDictionary shared;
+
+    private final char[] chars;        // все слова подряд
+    private final int[] offsets;       // начало слова i, offsets[size] - конец последнего
+    private final byte[] categoryOf;   // номер категории слова
+    private final byte[] difficulty;   // сложность слова 1..MAX_DIFFICULTY
+    private final String[] categories;
+    // номера слов по фильтру "категория/сложность", общие для всех комнат
+    private final Map<String, int[]> selections = new ConcurrentHashMap<>();
+
+    private WordDictionary(Builder builder) {
+        this.chars = builder.chars.toString().toCharArray();
+        this.offsets = Arrays.copyOf(builder.offsets, builder.count + 1);
+        this.categoryOf = Arrays.copyOf(builder.categoryOf, builder.count);
+        this.difficulty = Arrays.copyOf(builder.difficulty, builder.count);
+        this.categories = builder.categories.toArray(new String[0]);
+    }
+
+    /**
+     * словарь сервера: из файла -Dgame.words или встроенный
+     * читается один раз при первом обращении
+     */
+    public static WordDictionary getShared() {
+        WordDictionary dictionary = shared;
+        if (dictionary == null) {
+            synchronized (WordDictionary.class) {
+                dictionary = shared;
+                if (dictionary == null) {
+                    dictionary = loadShared(System.getProperty("game.words"));
+                    shared = dictionary;
+                }
+            }
+        }
+        return dictionary;
+    }
+
+    private static WordDictionary loadShared(String file) {
+        if (file != null) {
+            try {
+                WordDictionary dictionary = load(file);
+                if (dictionary.size() > 0) {
+                    System.out.println("Словарь " + file + ": " + dictionary.size() + " слов, категорий "
+                            + dictionary.categories.length);
+                    return dictionary;
+                }
+                System.err.println("Словарь " + file + " пуст, берем встроенный");
+            } catch (IOException e) {
+                System.err.println("Не удалось прочитать словарь " + file + ": " + e.getMessage()
+                        + ", берем встроенный");
+            }
+        }
+        return builtIn();
+    }
+
+    public static WordDictionary builtIn() {
+        Builder builder = new Builder();
+        for (String[] group : BUILT_IN) {
+            for (String word : group[1].split(" ")) {
+                builder.add(word, group[0], 0);
+            }
+        }
+        return new WordDictionary(builder);
+    }
+
+    // ЧТЕНИЕ ФАЙЛА СЛОВАРЯ
+    // строки читаются по одной, в памяти остается только итоговый массив
+    public static WordDictionary load(String file) throws IOException {
+        Builder builder = new Builder();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] parts = line.split(";", 3);
+                int level = 0;
+                if (parts.length > 2) {
+                    try {
+                        level = Integer.parseInt(parts[2].trim());
+                    } catch (NumberFormatException e) {
+                        // сложность посчитаем по длине
+                    }
+                }
+                builder.add(parts[0], parts.length > 1 ? parts[1] : NO_CATEGORY, level);
+            }
+        }
+        return new WordDictionary(builder);
+    }
+
+    public int size() {
+        return categoryOf.length;
+    }
+
+    public String word(int index) {
+        return new String(chars, offsets[index], offsets[index + 1] - offsets[index]);
+    }
+
+    public String category(int index) {
+        return categories[categoryOf[index]];
+    }
+
+    public int difficulty(int index) {
+        return difficulty[index];
+    }
+
+    /**
+     * слова без повторов для одной комнаты
+     * category null - любая, maxDifficulty - не сложнее
+     * если под фильтр ничего не подошло, берется весь словарь
+     */
+    public Cursor cursor(String category, int maxDifficulty) {
+        String key = category + "/" + maxDifficulty;
+        int[] selection = selections.computeIfAbsent(key, k -> select(category, maxDifficulty));
+        return new Cursor(selection);
+    }
+
+    public Cursor cursor() {
+        return cursor(null, MAX_DIFFICULTY);
+    }
+
+    private int[] select(String category, int maxDifficulty) {
+        int count = 0;
+        int[] selection = new int[size()];
+        for (int i = 0; i < selection.length; i++) {
+            if ((category == null || categories[categoryOf[i]].equalsIgnoreCase(category))
+                    && difficulty[i] <= maxDifficulty) {
+                selection[count++] = i;
+            }
+        }
+        if (count == 0) {
+            System.err.println("В словаре нет слов для " + category + " сложности до " + maxDifficulty
+                    + ", берем весь словарь");
+            for (int i = 0; i < selection.length; i++) {
+                selection[i] = i;
+            }
+            return selection;
+        }
+        return count == selection.length ? selection : Arrays.copyOf(selection, count);
+    }
+
+    /**
+     * порядок слов комнаты: перестановка i -> (a * i + b) mod n,
+     * a взаимно просто с n, поэтому за n слов каждое выпадет ровно один раз
+     * после круга берутся новые a и b
+     * выбор слова O(1), в комнате хранятся только a, b и номер шага
+     */
+    public class Cursor {
+        private final int[] selection;  // общий массив словаря
+        private long step;              // a
+        private long shift;             // b
+        private int position;           // сколько слов этого круга уже выдано
+
+        Cursor(int[] selection) {
+            this.selection = selection;
+            this.position = selection.length; // первый вызов начнет круг
+        }
+
+        public String next() {
+            int n = selection.length;
+            if (n == 0) return null;
+            if (position == n) {
+                shuffle(n);
+            }
+            int index = (int) ((step * position + shift) % n);
+            position++;
+            return word(selection[index]);
+        }
+
+        private void shuffle(int n) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long a;
+            do {
+                a = n == 1 ? 1 : 1 + random.nextInt(n - 1);
+            } while (gcd(a, n) != 1);
+            step = a;
+            shift = random.nextInt(n);
+            position = 0;
+        }
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    // СБОРКА СЛОВАРЯ: повторы выбрасываются, категории нумеруются
+    private static class Builder {
+        final StringBuilder chars = new StringBuilder();
+        int[] offsets = new int[1024];
+        byte[] categoryOf = new byte[1024];
+        byte[] difficulty = new byte[1024];
+        int count;
+        final List<String> categories = new ArrayList<>();
+        final Map<String, Byte> categoryIndex = new HashMap<>();
+        final Set<String> seen = new HashSet<>();
+
+        void add(String word, String category, int level) {
+            word = word.trim().toUpperCase(Locale.ROOT);
+            if (word.isEmpty() || !seen.add(word)) return;
+            category = category.trim().isEmpty() ? NO_CATEGORY : category.trim().toLowerCase(Locale.ROOT);
+            Byte number = categoryIndex.get(category);
+            if (number == null) {
+                if (categories.size() == 127) {
+                    category = NO_CATEGORY; // номер категории байт
+                    number = categoryIndex.get(category);
+                }
+                if (number == null) {
+                    number = (byte) categories.size();
+                    categories.add(category);
+                    categoryIndex.put(category, number);
+                }
+            }
+            if (level < 1 || level > MAX_DIFFICULTY) {
+                // по длине: короткие слова проще нарисовать
+                level = word.length() <= 4 ? 1 : word.length() <= 7 ? 2 : 3;
+            }
+            if (count + 1 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                categoryOf = Arrays.copyOf(categoryOf, offsets.length);
+                difficulty = Arrays.copyOf(difficulty, offsets.length);
+            }
+            chars.append(word);
+            categoryOf[count] = number;
+            difficulty[count] = (byte) level;
+            offsets[++count] = chars.length();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package ru.game.protocol;
+
+/**
+ * бинарные кадры протокола
+ * включаются если клиент прислал JOIN:ник|BIN и сервер ответил PROTO:BIN
+ * кадр идет в том же потоке что и текстовые строки и начинается с байта 0,
+ * которого не бывает в начале текстовой строки:
+ * [0][тип][длина varint][данные]
+ *
+ * SEGMENT (отрезок): [цвет][x1][y1][dx][dy], числа zigzag varint
+ * (мышь за краем холста дает отрицательные координаты)
+ * координаты до 600 занимают 2 байта, смещение соседних точек обычно 1 байт,
+ * весь кадр около 10 байт вместо 25 символов текста DRAW
+ *
+ * POLYLINE (кусок штриха): [цвет][штрих varint][x0][y0] и дальше [dx][dy]
+ * для каждой следующей точки, тоже zigzag varint
+ * соседние точки штриха рядом, поэтому точка обычно стоит 2 байта
+ *
+ * SNAPSHOT (весь рисунок раунда): сжатые данные, см. CanvasSnapshot
+ */
+public final class BinaryProtocol {
+    public static final byte FRAME_MARK = 0;           // первый байт бинарного кадра
+    public static final int SEGMENT = 1;               // тип кадра: отрезок рисунка
+    public static final int POLYLINE = 2;              // тип кадра: несколько точек штриха
+    public static final int SNAPSHOT = 3;              // тип кадра: рисунок раунда для вошедшего игрока
+    public static final int MAX_SEGMENT_FRAME = 3 + 1 + 4 * 5; // кадр отрезка с запасом
+    private static final int MAX_HEADER = 2 + 3;       // метка, тип и длина до 2 МБ
+    public static final int MAX_POLYLINE_FRAME =       // кадр куска штриха с запасом
+            MAX_HEADER + 1 + 5 + StrokePolyline.MAX_POINTS * 2 * 5;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * записать кадр отрезка в out с позиции 0, вернуть длину кадра
+     * out должен быть не меньше MAX_SEGMENT_FRAME
+     */
+    public static int encodeSegment(StrokeSegment segment, byte[] out) {
+        int pos = 3; // место под заголовок, длина данных всегда меньше 128
+        out[pos++] = (byte) segment.getColor();
+        pos = writeVarint(out, pos, zigzag(segment.getX1()));
+        pos = writeVarint(out, pos, zigzag(segment.getY1()));
+        pos = writeVarint(out, pos, zigzag(segment.getX2() - segment.getX1()));
+        pos = writeVarint(out, pos, zigzag(segment.getY2() - segment.getY1()));
+        out[0] = FRAME_MARK;
+        out[1] = SEGMENT;
+        out[2] = (byte) (pos - 3);
+        return pos;
+    }
+
+    /**
+     * кадр отрезка отдельным массивом точной длины, для рассылки нескольким клиентам
+     */
+    public static byte[] encodeSegment(StrokeSegment segment) {
+        byte[] buffer = new byte[MAX_SEGMENT_FRAME];
+        int length = encodeSegment(segment, buffer);
+        byte[] frame = new byte[length];
+        System.arraycopy(buffer, 0, frame, 0, length);
+        return frame;
+    }
+
+    /**
+     * разобрать данные кадра отрезка (без заголовка) в out
+     * false если данные обрезаны
+     */
+    public static boolean decodeSegment(byte[] data, int offset, int length, StrokeSegment out) {
+        int end = offset + length;
+        if (length < 5) return false;
+        int pos = offset;
+        int color = data[pos++] & 0xFF;
+
+        long x1 = readVarint(data, pos, end);
+        if (x1 < 0) return false;
+        pos += varintSize(x1);
+        long y1 = readVarint(data, pos, end);
+        if (y1 < 0) return false;
+        pos += varintSize(y1);
+        long dx = readVarint(data, pos, end);
+        if (dx < 0) return false;
+        pos += varintSize(dx);
+        long dy = readVarint(data, pos, end);
+        if (dy < 0) return false;
+
+        int x = unzigzag((int) x1);
+        int y = unzigzag((int) y1);
+        out.set(x, y, x + unzigzag((int) dx), y + unzigzag((int) dy), color);
+        return true;
+    }
+
+    /**
+     * записать кадр куска штриха в out с позиции 0, вернуть длину кадра
+     * out должен быть не меньше MAX_POLYLINE_FRAME
+     */
+    public static int encodePolyline(StrokePolyline polyline, byte[] out) {
+        // данные пишем после места под самый длинный заголовок,
+        // потом сдвигаем к реальному заголовку
+        int length = writePolylineData(polyline, out, MAX_HEADER) - MAX_HEADER;
+        out[0] = FRAME_MARK;
+        out[1] = POLYLINE;
+        int header = writeVarint(out, 2, length);
+        System.arraycopy(out, MAX_HEADER, out, header, length);
+        return header + length;
+    }
+
+    /**
+     * записать данные куска штриха (без заголовка) с позиции pos,
+     * вернуть позицию после них
+     */
+    public static int writePolylineData(StrokePolyline polyline, byte[] out, int pos) {
+        out[pos++] = (byte) polyline.getColor();
+        pos = writeVarint(out, pos, polyline.getStrokeId());
+        int prevX = 0;
+        int prevY = 0;
+        for (int i = 0; i < polyline.getCount(); i++) {
+            int x = polyline.getX(i);
+            int y = polyline.getY(i);
+            pos = writeVarint(out, pos, zigzag(x - prevX)); // первая точка от нуля
+            pos = writeVarint(out, pos, zigzag(y - prevY));
+            prevX = x;
+            prevY = y;
+        }
+        return pos;
+    }
+
+    /**
+     * кадр любого типа из готовых данных
+     */
+    public static byte[] frame(int type, byte[] data, int offset, int length) {
+        byte[] frame = new byte[2 + varintSize(length) + length];
+        frame[0] = FRAME_MARK;
+        frame[1] = (byte) type;
+        int pos = writeVarint(frame, 2, length);
+        System.arraycopy(data, offset, frame, pos, length);
+        return frame;
+    }
+
+    /**
+     * кадр куска штриха отдельным массивом точной длины
+     */
+    public static byte[] encodePolyline(StrokePolyline polyline) {
+        byte[] buffer = new byte[MAX_POLYLINE_FRAME];
+        int length = encodePolyline(polyline, buffer);
+        byte[] frame = new byte[length];
+        System.arraycopy(buffer, 0, frame, 0, length);
+        return frame;
+    }
+
+    /**
+     * разобрать данные кадра куска штриха (без заголовка) в out
+     * false если данные обрезаны или точек слишком много
+     */
+    public static boolean decodePolyline(byte[] data, int offset, int length, StrokePolyline out) {
+        int end = offset + length;
+        if (length < 2) return false;
+        int pos = offset;
+        int color = data[pos++] & 0xFF;
+        long strokeId = readVarint(data, pos, end);
+        if (strokeId < 0) return false;
+        pos += varintSize(strokeId);
+        out.reset((int) strokeId, color);
+
+        int x = 0;
+        int y = 0;
+        while (pos < end) {
+            long dx = readVarint(data, pos, end);
+            if (dx < 0) return false;
+            pos += varintSize(dx);
+            long dy = readVarint(data, pos, end);
+            if (dy < 0) return false;
+            pos += varintSize(dy);
+            x += unzigzag((int) dx);
+            y += unzigzag((int) dy);
+            if (!out.add(x, y)) return false;
+        }
+        return out.getCount() > 0;
+    }
+
+    // varint: по 7 бит, старший бит значит что будет еще байт
+    public static int writeVarint(byte[] out, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    // прочитать varint с позиции pos, -1 если данные кончились
+    // значение без знака до 32 бит, поэтому возвращаем long
+    public static long readVarint(byte[] data, int pos, int end) {
+        long value = 0;
+        for (int shift = 0; shift < 35 && pos < end; shift += 7) {
+            int b = data[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value & 0xFFFFFFFFL;
+            }
+        }
+        return -1;
+    }
+
+    // сколько байт занимает значение в varint
+    public static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    // zigzag: маленькие отрицательные числа тоже занимают один байт
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
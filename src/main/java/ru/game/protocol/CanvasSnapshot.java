@@ -0,0 +1,111 @@
+package ru.game.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * снимок рисунка раунда одним кадром SNAPSHOT
+ * отправляется игроку, который вошел или вернулся посреди раунда,
+ * вместо повтора тысяч сообщений рисования
+ *
+ * данные кадра сжаты deflate, внутри:
+ * [длина картинки varint][PNG] - старая часть рисунка, уже нарисованная сервером
+ * (длина 0 если ее нет), и дальше куски штрихов [длина varint][данные POLYLINE]
+ */
+public final class CanvasSnapshot {
+
+    public interface Handler {
+        void onImage(byte[] png, int offset, int length);
+        void onPolyline(StrokePolyline polyline);
+    }
+
+    private CanvasSnapshot() {
+    }
+
+    /**
+     * собрать кадр SNAPSHOT из картинки (может быть null) и записей штрихов
+     */
+    public static byte[] encode(byte[] image, byte[] records, int recordsLength) {
+        int imageLength = image == null ? 0 : image.length;
+        byte[] header = new byte[5];
+        int headerLength = BinaryProtocol.writeVarint(header, 0, imageLength);
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(recordsLength / 2 + imageLength + 64);
+        byte[] chunk = new byte[8192];
+        try {
+            deflater.setInput(header, 0, headerLength);
+            drain(deflater, chunk, out);
+            if (imageLength > 0) {
+                deflater.setInput(image, 0, imageLength);
+                drain(deflater, chunk, out);
+            }
+            deflater.setInput(records, 0, recordsLength);
+            drain(deflater, chunk, out);
+            deflater.finish();
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+        } finally {
+            deflater.end();
+        }
+        byte[] compressed = out.toByteArray();
+        return BinaryProtocol.frame(BinaryProtocol.SNAPSHOT, compressed, 0, compressed.length);
+    }
+
+    private static void drain(Deflater deflater, byte[] chunk, ByteArrayOutputStream out) {
+        while (!deflater.needsInput()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+    }
+
+    /**
+     * разобрать данные кадра SNAPSHOT, false если данные испорчены
+     * maxSize ограничивает размер после распаковки
+     */
+    public static boolean decode(byte[] data, int offset, int length, int maxSize,
+                                 StrokePolyline scratch, Handler handler) {
+        byte[] raw;
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length * 3);
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return false; // данные обрезаны
+                }
+                out.write(chunk, 0, n);
+                if (out.size() > maxSize) return false;
+            }
+            raw = out.toByteArray();
+        } catch (DataFormatException e) {
+            return false;
+        } finally {
+            inflater.end();
+        }
+
+        long imageLength = BinaryProtocol.readVarint(raw, 0, raw.length);
+        if (imageLength < 0) return false;
+        int pos = BinaryProtocol.varintSize(imageLength);
+        if (raw.length - pos < imageLength) return false;
+        if (imageLength > 0) {
+            handler.onImage(raw, pos, (int) imageLength);
+        }
+        pos += (int) imageLength;
+
+        while (pos < raw.length) {
+            long recordLength = BinaryProtocol.readVarint(raw, pos, raw.length);
+            if (recordLength < 0) return false;
+            pos += BinaryProtocol.varintSize(recordLength);
+            if (raw.length - pos < recordLength) return false;
+            if (!BinaryProtocol.decodePolyline(raw, pos, (int) recordLength, scratch)) return false;
+            handler.onPolyline(scratch);
+            pos += (int) recordLength;
+        }
+        return true;
+    }
+}
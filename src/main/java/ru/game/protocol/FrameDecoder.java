@@ -0,0 +1,108 @@
+package ru.game.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * разбор входящего потока байт на сообщения
+ * поток смешанный: текстовые строки до '\n' в UTF-8
+ * и бинарные кадры [0][тип][длина varint][данные] (см. BinaryProtocol)
+ *
+ * один декодер на соединение, байты подаются кусками как пришли из сокета
+ * сообщение целиком внутри куска отдается обработчику без копирования,
+ * в запасной буфер копируется только незаконченный хвост
+ * обработчик не должен запоминать массив кадра после возврата
+ */
+public class FrameDecoder {
+
+    public interface Handler {
+        void onLine(String line);
+        void onFrame(int type, byte[] data, int offset, int length);
+    }
+
+    private static final int STEP = 4096;  // порция дописывания незаконченного сообщения
+
+    private final int maxMessage;   // защита от бесконечной строки или огромного кадра
+    private byte[] partial;         // незаконченное сообщение с прошлого куска
+    private int partialLength;
+
+    public FrameDecoder(int maxMessage) {
+        this.maxMessage = maxMessage;
+    }
+
+    /**
+     * подать очередной кусок байт
+     * false если поток испорчен (слишком длинное сообщение), соединение надо закрыть
+     */
+    public boolean feed(byte[] bytes, int offset, int length, Handler handler) {
+        int pos = offset;
+        int end = offset + length;
+
+        // сначала дописываем незаконченное сообщение небольшими порциями,
+        // чтобы не копировать в запасной буфер весь кусок
+        while (partialLength > 0 && pos < end) {
+            int piece = Math.min(end - pos, STEP);
+            if (!append(bytes, pos, piece)) return false;
+            pos += piece;
+            int consumed = parse(partial, 0, partialLength, handler);
+            if (consumed < 0) return false;
+            System.arraycopy(partial, consumed, partial, 0, partialLength - consumed);
+            partialLength -= consumed;
+        }
+        if (pos == end) return true;
+
+        // остальное разбираем на месте
+        int consumed = parse(bytes, pos, end, handler);
+        if (consumed < 0) return false;
+        return append(bytes, consumed, end - consumed);
+    }
+
+    // разобрать все полные сообщения, вернуть позицию первого неразобранного байта
+    private int parse(byte[] b, int start, int end, Handler handler) {
+        int pos = start;
+        while (pos < end) {
+            if (b[pos] == BinaryProtocol.FRAME_MARK) {
+                if (end - pos < 3) break;
+                int type = b[pos + 1] & 0xFF;
+                long length = BinaryProtocol.readVarint(b, pos + 2, end);
+                if (length < 0) break; // длина еще не пришла целиком
+                if (length > maxMessage) return -1;
+                int data = pos + 2 + BinaryProtocol.varintSize(length);
+                if (end - data < length) break;
+                handler.onFrame(type, b, data, (int) length);
+                pos = data + (int) length;
+            } else {
+                int newline = indexOf(b, (byte) '\n', pos, end);
+                if (newline < 0) break;
+                int lineEnd = newline;
+                if (lineEnd > pos && b[lineEnd - 1] == '\r') {
+                    lineEnd--; // клиент мог прислать \r\n
+                }
+                handler.onLine(new String(b, pos, lineEnd - pos, StandardCharsets.UTF_8));
+                pos = newline + 1;
+            }
+        }
+        return pos;
+    }
+
+    private boolean append(byte[] bytes, int offset, int length) {
+        if (length == 0) return true;
+        if (partialLength + length > maxMessage + STEP) {
+            return false;
+        }
+        if (partial == null || partial.length < partialLength + length) {
+            int size = Math.max(256, Integer.highestOneBit(partialLength + length) << 1);
+            partial = partial == null ? new byte[size] : Arrays.copyOf(partial, size);
+        }
+        System.arraycopy(bytes, offset, partial, partialLength, length);
+        partialLength += length;
+        return true;
+    }
+
+    private static int indexOf(byte[] b, byte value, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (b[i] == value) return i;
+        }
+        return -1;
+    }
+}
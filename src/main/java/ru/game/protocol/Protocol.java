@@ -5,15 +5,55 @@ public class Protocol {
     // команды протокола
     public static final String JOIN = "JOIN";
     public static final String DRAW = "DRAW";
+    public static final String STROKE = "STROKE"; // STROKE:штрих,ЦВЕТ,x0,y0,x1,y1,... несколько точек сразу
     public static final String WORD = "WORD";
     public static final String GUESS = "GUESS";
     public static final String CLEAR = "CLEAR";
+    // UNDO:штрих рисующий отменил свой штрих, сервер убирает его у всех
+    // REDO:штрих вернуть отмененный, остальным сервер присылает его заново кусками
+    // от сервера REDO получает только рисующий: отмена не принята, штрих надо показать снова
+    // UNDO рисующему тоже отказ: возврат не принят, штрих надо снова спрятать
+    // клиенты без BIN получают штрихи строками DRAW без номера, поэтому вместо UNDO
+    // им приходит CLEAR и оставшийся рисунок строками DRAW, так же и рисунок при RESUME;
+    // часть рисунка, которую сервер уже нарисовал в картинку (очень длинный раунд), им не передается
+    public static final String UNDO = "UNDO";
+    public static final String REDO = "REDO";
     public static final String SCORE = "SCORE";
     public static final String CHAT = "CHAT";
     public static final String ROLE = "ROLE"; // ROLE:DRAWER или ROLE:GUESSER
     public static final String GAME_START = "GAME_START";
     public static final String CORRECT = "CORRECT"; // Правильный ответ
     public static final String ERROR = "ERROR";
+    public static final String PROTO = "PROTO"; // PROTO:BIN сервер включил бинарные кадры
+    public static final String SESSION = "SESSION"; // SESSION:токен для переподключения
+    public static final String RESUME = "RESUME";   // клиент: RESUME:токен|BIN, сервер: RESUME:OK или RESUME:FAIL
+    public static final String LEAVE = "LEAVE";     // игрок уходит сам, ждать его не надо
+    // клиент: LEADERBOARD:сколько мест
+    // сервер: LEADERBOARD:игроков:мое место:мои очки, дальше через таб место:очки:ник
+    public static final String LEADERBOARD = "LEADERBOARD";
+    public static final char LEADERBOARD_SEPARATOR = '\t';
+
+    // возможности клиента передаются в JOIN после ника: JOIN:ник|BIN
+    public static final char FEATURE_SEPARATOR = '|';
+    public static final String FEATURE_BINARY = "BIN"; // рисование бинарными кадрами
+
+    // палитра: цвет передается номером, в тексте DRAW по имени
+    public static final String[] COLORS = {
+            "BLACK", "RED", "ORANGE", "YELLOW", "GREEN", "BLUE", "PURPLE", "WHITE"
+    };
+    // те же цвета в RGB, как их рисует клиент
+    public static final int[] COLOR_RGB = {
+            0x000000, 0xFF0000, 0xFFA500, 0xFFFF00, 0x00FF00, 0x0000FF, 0x800080, 0xFFFFFF
+    };
+
+    // холст у всех клиентов одного размера, координаты в его пикселях
+    public static final int CANVAS_WIDTH = 600;
+    public static final int CANVAS_HEIGHT = 500;
+    public static final int LINE_WIDTH = 3;
+    // сколько последних штрихов можно отменить, столько же хранят сервер и клиенты
+    public static final int MAX_UNDO = 20;
+    // ник длиннее обрезается при входе, столько помещается в любое хранилище статистики
+    public static final int MAX_NICKNAME_BYTES = 64;
     
     /**
      * создать сообщение JOIN
@@ -21,6 +61,50 @@ public class Protocol {
     public static String createJoin(String nickname) {
         return JOIN + ":" + nickname;
     }
+
+    /**
+     * создать сообщение JOIN с возможностями клиента
+     */
+    public static String createJoin(String nickname, String features) {
+        return JOIN + ":" + nickname + FEATURE_SEPARATOR + features;
+    }
+
+    /**
+     * ник из данных JOIN (без возможностей)
+     */
+    public static String joinNickname(String data) {
+        int separator = data.indexOf(FEATURE_SEPARATOR);
+        return separator < 0 ? data : data.substring(0, separator);
+    }
+
+    /**
+     * ник не длиннее MAX_NICKNAME_BYTES в UTF-8, обрезается по целым символам
+     */
+    public static String limitNickname(String nickname) {
+        int bytes = 0;
+        for (int i = 0; i < nickname.length(); ) {
+            int codePoint = nickname.codePointAt(i);
+            int size = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            if (bytes + size > MAX_NICKNAME_BYTES) {
+                return nickname.substring(0, i);
+            }
+            bytes += size;
+            i += Character.charCount(codePoint);
+        }
+        return nickname;
+    }
+
+    /**
+     * есть ли возможность в данных JOIN
+     */
+    public static boolean joinHasFeature(String data, String feature) {
+        int separator = data.indexOf(FEATURE_SEPARATOR);
+        if (separator < 0) return false;
+        for (String f : data.substring(separator + 1).split(",")) {
+            if (f.trim().equals(feature)) return true;
+        }
+        return false;
+    }
     
     /**
      * создать сообщение DRAW
@@ -29,6 +113,99 @@ public class Protocol {
         return DRAW + ":" + x1 + "," + y1 + "," + x2 + "," + y2 + "," + color;
     }
     
+    /**
+     * разобрать данные DRAW x1,y1,x2,y2,ЦВЕТ в готовый отрезок
+     * без split и лишних строк, false если формат неверный
+     */
+    public static boolean parseDraw(String data, StrokeSegment out) {
+        int c1 = data.indexOf(',');
+        int c2 = data.indexOf(',', c1 + 1);
+        int c3 = data.indexOf(',', c2 + 1);
+        int c4 = data.indexOf(',', c3 + 1);
+        if (c1 < 0 || c2 < 0 || c3 < 0 || c4 < 0) {
+            return false;
+        }
+        try {
+            out.set(Integer.parseInt(data, 0, c1, 10),
+                    Integer.parseInt(data, c1 + 1, c2, 10),
+                    Integer.parseInt(data, c2 + 1, c3, 10),
+                    Integer.parseInt(data, c3 + 1, c4, 10),
+                    colorIndex(data, c4 + 1));
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * создать сообщение STROKE из куска линии
+     */
+    public static String createStroke(StrokePolyline polyline) {
+        StringBuilder sb = new StringBuilder(16 + polyline.getCount() * 8);
+        sb.append(STROKE).append(':').append(polyline.getStrokeId())
+                .append(',').append(colorName(polyline.getColor()));
+        for (int i = 0; i < polyline.getCount(); i++) {
+            sb.append(',').append(polyline.getX(i)).append(',').append(polyline.getY(i));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * разобрать данные STROKE штрих,ЦВЕТ,x0,y0,x1,y1,... в кусок линии
+     * false если формат неверный или точек слишком много
+     */
+    public static boolean parseStroke(String data, StrokePolyline out) {
+        int c1 = data.indexOf(',');
+        int c2 = c1 < 0 ? -1 : data.indexOf(',', c1 + 1);
+        if (c2 < 0) return false;
+        try {
+            out.reset(Integer.parseInt(data, 0, c1, 10), colorIndex(data, c1 + 1, c2));
+            int pos = c2 + 1;
+            while (pos < data.length()) {
+                int comma = data.indexOf(',', pos);
+                if (comma < 0) return false; // у точки нет y
+                int next = data.indexOf(',', comma + 1);
+                int end = next < 0 ? data.length() : next;
+                if (!out.add(Integer.parseInt(data, pos, comma, 10),
+                        Integer.parseInt(data, comma + 1, end, 10))) {
+                    return false;
+                }
+                pos = end + 1;
+            }
+            return out.getCount() > 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * номер цвета палитры по имени, начиная с позиции from
+     * неизвестный цвет черный
+     */
+    public static int colorIndex(String text, int from) {
+        return colorIndex(text, from, text.length());
+    }
+
+    /**
+     * номер цвета палитры по имени в text[from, to)
+     */
+    public static int colorIndex(String text, int from, int to) {
+        int length = to - from;
+        for (int i = 0; i < COLORS.length; i++) {
+            if (COLORS[i].length() == length && text.regionMatches(from, COLORS[i], 0, length)) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * имя цвета палитры по номеру
+     */
+    public static String colorName(int index) {
+        return index >= 0 && index < COLORS.length ? COLORS[index] : COLORS[0];
+    }
+    
     /**
      * создать сообщение WORD отправляется только ведущему
      */
@@ -50,6 +227,33 @@ public class Protocol {
         return CLEAR + ":";
     }
     
+    /**
+     * создать сообщение UNDO
+     */
+    public static String createUndo(int strokeId) {
+        return UNDO + ":" + strokeId;
+    }
+
+    /**
+     * создать сообщение REDO
+     */
+    public static String createRedo(int strokeId) {
+        return REDO + ":" + strokeId;
+    }
+
+    /**
+     * номер штриха из UNDO или REDO, -1 если это не число больше нуля
+     * (0 у отдельных отрезков DRAW, их отменить нельзя)
+     */
+    public static int parseStrokeId(String data) {
+        try {
+            int strokeId = Integer.parseInt(data.trim());
+            return strokeId > 0 ? strokeId : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     /**
      * создать сообщение SCORE
      */
@@ -71,6 +275,35 @@ public class Protocol {
         return ROLE + ":" + role; // DRAWER или GUESSER
     }
     
+    /**
+     * создать сообщение PROTO
+     */
+    public static String createProto(String features) {
+        return PROTO + ":" + features;
+    }
+
+    /**
+     * создать сообщение SESSION
+     */
+    public static String createSession(String token) {
+        return SESSION + ":" + token;
+    }
+
+    /**
+     * создать сообщение RESUME, от клиента с токеном и возможностями,
+     * от сервера с результатом
+     */
+    public static String createResume(String data) {
+        return RESUME + ":" + data;
+    }
+
+    /**
+     * создать запрос LEADERBOARD
+     */
+    public static String createLeaderboard(int count) {
+        return LEADERBOARD + ":" + count;
+    }
+
     /**
      * парсинг сообщения
      */
@@ -0,0 +1,38 @@
+package ru.game.protocol;
+
+/**
+ * кусок линии рисунка: номер штриха, цвет и несколько точек подряд
+ * соседние точки соединяются отрезками
+ * объект изменяемый и переиспользуется при разборе и отправке
+ */
+public class StrokePolyline {
+    public static final int MAX_POINTS = 256;  // больше точек в одном сообщении не принимаем
+
+    private final int[] xs = new int[MAX_POINTS];
+    private final int[] ys = new int[MAX_POINTS];
+    private int count;
+    private int strokeId;  // номер штриха у рисующего, куски одного штриха идут с одним номером
+    private int color;     // номер в Protocol.COLORS
+
+    // начать заново, точки стираются
+    public void reset(int strokeId, int color) {
+        this.strokeId = strokeId;
+        this.color = color;
+        this.count = 0;
+    }
+
+    // false если точек уже MAX_POINTS
+    public boolean add(int x, int y) {
+        if (count == MAX_POINTS) return false;
+        xs[count] = x;
+        ys[count] = y;
+        count++;
+        return true;
+    }
+
+    public int getX(int i) { return xs[i]; }
+    public int getY(int i) { return ys[i]; }
+    public int getCount() { return count; }
+    public int getStrokeId() { return strokeId; }
+    public int getColor() { return color; }
+}
@@ -0,0 +1,25 @@
+package ru.game.protocol;
+
+/**
+ * отрезок рисунка: две точки и номер цвета палитры
+ * объект изменяемый и переиспользуется при разборе,
+ * чтобы на каждый отрезок не создавать новый объект
+ */
+public class StrokeSegment {
+    private int x1, y1, x2, y2;
+    private int color;  // номер в Protocol.COLORS
+
+    public void set(int x1, int y1, int x2, int y2, int color) {
+        this.x1 = x1;
+        this.y1 = y1;
+        this.x2 = x2;
+        this.y2 = y2;
+        this.color = color;
+    }
+
+    public int getX1() { return x1; }
+    public int getY1() { return y1; }
+    public int getX2() { return x2; }
+    public int getY2() { return y2; }
+    public int getColor() { return color; }
+}
@@ -0,0 +1,135 @@
+package ru.game.server;
+
+import ru.game.model.Player;
+import ru.game.protocol.FrameDecoder;
+import ru.game.protocol.Protocol;
+import ru.game.protocol.StrokePolyline;
+import ru.game.protocol.StrokeSegment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * подключенный клиент с точки зрения игровой логики
+ * комнаты работают только с этим классом и не знают
+ * как устроен транспорт: свой поток на клиента или NIO
+ *
+ * отправка только кладет сообщение в очередь клиента,
+ * в сокет пишет транспорт, поэтому медленный клиент
+ * не задерживает того кто ему отправляет
+ */
+public abstract class ClientHandler {
+    protected final GameServer server;    // Ссылка на главный сервер
+    // player, room и binary меняют комната и таймер, а читают без блокировки
+    // поток чтения и рассылка рисунка, поэтому volatile
+    private volatile Player player;
+    private String nickname;
+    private volatile GameRoom room;       // комната в которой играет клиент
+    private volatile boolean binary;      // клиент понимает бинарные кадры
+    private String sessionToken;          // сессия игрока для переподключения
+    private final StrokeSegment segment;  // разобранный отрезок, переиспользуется
+    private final StrokePolyline polyline; // разобранный кусок штриха, переиспользуется
+    private final StrokePolyline merged;  // отрезки сверх лимита, склеенные в один штрих
+    private boolean mergeFlushScheduled;  // таймер отправит merged, под замком merged
+    private int strokeId;                 // номер последнего штриха клиента, только поток чтения
+    private final RateLimiter limiter;    // частота сообщений, только поток чтения
+    protected final OutboundQueue outbound; // сообщения ждущие записи в сокет
+
+    protected ClientHandler(GameServer server) {
+        this.server = server;
+        this.outbound = new OutboundQueue(GameServer.OUTBOUND_LIMIT, GameServer.SLOW_CONSUMER);
+        this.segment = new StrokeSegment();
+        this.polyline = new StrokePolyline();
+        this.merged = new StrokePolyline();
+        this.limiter = new RateLimiter();
+    }
+
+    // ОТПРАВКА СООБЩЕНИЯ КЛИЕНТУ
+    // служебные сообщения (роль, слово, счет, чат) не выбрасываются
+    public void send(String message) throws IOException {
+        enqueue(ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8)), false);
+    }
+
+    // ОТПРАВКА РИСУНКА ТЕКСТОМ (одна или несколько строк DRAW)
+    // медленному клиенту может не дойти
+    public void sendDrawing(String lines) throws IOException {
+        enqueue(ByteBuffer.wrap((lines + "\n").getBytes(StandardCharsets.UTF_8)), true);
+    }
+
+    // ОТПРАВКА БИНАРНОГО КАДРА (только клиентам с binary)
+    // массив кадра общий для всех получателей, поэтому только wrap без копии
+    public void sendFrame(byte[] frame) throws IOException {
+        enqueue(ByteBuffer.wrap(frame), true);
+    }
+
+    private void enqueue(ByteBuffer data, boolean drawing) throws IOException {
+        if (isClosed()) {
+            throw new IOException("соединение закрыто");
+        }
+        boolean wasLagging = outbound.isLagging();
+        switch (outbound.offer(data, drawing)) {
+            case QUEUED:
+                scheduleFlush();
+                break;
+            case DROPPED:
+                if (!wasLagging) {
+                    System.out.println("Клиент " + nickname + " не успевает читать, рисунок пропускается");
+                }
+                break;
+            case OVERFLOW:
+                System.err.println("Очередь отправки клиента " + nickname + " переполнена, отключаем");
+                close();
+                throw new IOException("очередь отправки переполнена");
+        }
+    }
+
+    // транспорт должен записать очередь outbound
+    protected abstract void scheduleFlush();
+
+    protected abstract boolean isClosed();
+
+    // входящие строки и кадры отдаем серверу
+    // вызывает только поток чтения этого клиента
+    protected FrameDecoder.Handler messageHandler() {
+        return new FrameDecoder.Handler() {
+            @Override
+            public void onLine(String line) {
+                // разбираем строку в объект сообщения
+                Protocol.Message message = Protocol.parse(line);
+                if (message != null) {
+                    // передаем сообщение серверу для обработки
+                    server.handleMessage(ClientHandler.this, message);
+                }
+            }
+
+            @Override
+            public void onFrame(int type, byte[] data, int offset, int length) {
+                server.handleFrame(ClientHandler.this, type, data, offset, length);
+            }
+        };
+    }
+
+    // БЕЗОПАСНОЕ ЗАКРЫТИЕ
+    public abstract void close();
+
+    // геттеры и сеттеры
+    public Player getPlayer() { return player; }
+    public void setPlayer(Player player) { this.player = player; }
+    public String getNickname() { return nickname; }
+    public void setNickname(String nickname) { this.nickname = nickname; }
+    public GameRoom getRoom() { return room; }
+    public void setRoom(GameRoom room) { this.room = room; }
+    public boolean isBinary() { return binary; }
+    public void setBinary(boolean binary) { this.binary = binary; }
+    public String getSessionToken() { return sessionToken; }
+    public void setSessionToken(String sessionToken) { this.sessionToken = sessionToken; }
+    public StrokeSegment getSegment() { return segment; }
+    public StrokePolyline getPolyline() { return polyline; }
+    StrokePolyline getMerged() { return merged; }
+    boolean isMergeFlushScheduled() { return mergeFlushScheduled; }
+    void setMergeFlushScheduled(boolean scheduled) { this.mergeFlushScheduled = scheduled; }
+    int getStrokeId() { return strokeId; }
+    void setStrokeId(int strokeId) { this.strokeId = strokeId; }
+    RateLimiter getLimiter() { return limiter; }
+}
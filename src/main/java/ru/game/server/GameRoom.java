@@ -0,0 +1,730 @@
+package ru.game.server;
+
+import ru.game.model.GameState;
+import ru.game.model.GuessMatcher;
+import ru.game.model.Player;
+import ru.game.protocol.BinaryProtocol;
+import ru.game.protocol.Protocol;
+import ru.game.protocol.StrokePolyline;
+import ru.game.protocol.StrokeSegment;
+import ru.game.storage.ReplayWriter;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * игровая комната
+ * у каждой комнаты свое состояние игры, свой список клиентов
+ * и своя блокировка, поэтому комнаты не мешают друг другу
+ * блокировка ReentrantLock а не synchronized: виртуальный поток,
+ * который ждет внутри нее, освобождает поток-носитель
+ * рисование идет без блокировки, смену раунда и время хода
+ * отсчитывает таймер-колесо сервера
+ *
+ * каждый раунд записывается (RoundRecorder) и после итога
+ * уходит на диск через сервер, см. ReplayWriter
+ *
+ * у каждого игрока есть сессия: если соединение оборвалось посреди игры,
+ * игрок не удаляется сразу, а ждет GRACE_MS переподключения с тем же токеном
+ */
+public class GameRoom {
+    public static final int MAX_PLAYERS = 2;          // игроков в одной комнате
+    private static final long START_DELAY_MS = 100;   // второй клиент успевает открыть окно
+    private static final long ROUND_PAUSE_MS = 2000;  // пауза после правильного ответа
+    private static final long TURN_TIME_MS = 90_000;  // время на раунд
+    static final long GRACE_MS = 30_000;              // сколько ждем переподключения
+
+    private final long id;                            // номер комнаты
+    private final GameServer server;                  // ссылка на сервер (статистика)
+    private final RoomRegistry registry;              // реестр, которому сообщаем о выходе игрока
+    private final GameState gameState;                // состояние игры этой комнаты
+    private final List<ClientHandler> clients;        // клиенты этой комнаты (копия при записи)
+    private final AtomicInteger seats;                // занятые и забронированные места
+    private final ReentrantLock lock;                 // блокировка комнаты
+    private int roundToken;                           // меняется при каждом старте и выходе игрока
+    private WheelTimer.Timeout turnTimeout;           // конец времени текущего раунда
+    private final StrokeLog strokes;                  // рисунок текущего раунда для вошедших позже
+    private final RoundRecorder recorder;             // запись текущего раунда
+    private final GuessMatcher matcher;               // проверка догадок, под блокировкой
+    private final Map<String, Session> sessions;      // сессии игроков по токену, под блокировкой
+
+    // сессия игрока: переживает обрыв соединения
+    private static class Session {
+        final String token;
+        final Player player;
+        ClientHandler client;                         // null пока игрок ждет переподключения
+        WheelTimer.Timeout grace;                     // конец ожидания
+
+        Session(String token, Player player, ClientHandler client) {
+            this.token = token;
+            this.player = player;
+            this.client = client;
+        }
+    }
+
+    public GameRoom(long id, GameServer server, RoomRegistry registry) {
+        this.id = id;
+        this.server = server;
+        this.registry = registry;
+        this.sessions = new HashMap<>();
+        this.gameState = new GameState();
+        this.clients = new CopyOnWriteArrayList<>();
+        this.seats = new AtomicInteger();
+        this.strokes = new StrokeLog();
+        this.recorder = new RoundRecorder();
+        this.matcher = new GuessMatcher();
+        this.lock = new ReentrantLock();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    // БРОНИРОВАНИЕ МЕСТА
+    // счетчик мест меняется через CAS без блокировки комнаты
+    // -1 значит комната закрыта и в нее больше нельзя войти
+    boolean reserveSeat() {
+        while (true) {
+            int taken = seats.get();
+            if (taken < 0 || taken >= MAX_PLAYERS) {
+                return false;
+            }
+            if (seats.compareAndSet(taken, taken + 1)) {
+                return true;
+            }
+        }
+    }
+
+    boolean hasFreeSeat() {
+        int taken = seats.get();
+        return taken >= 0 && taken < MAX_PLAYERS;
+    }
+
+    // освобождаем место, true если комната опустела и закрылась
+    private boolean releaseSeat() {
+        return seats.decrementAndGet() == 0 && seats.compareAndSet(0, -1);
+    }
+
+    // ПРИСОЕДИНЕНИЕ К КОМНАТЕ
+    // место уже забронировано через reserveSeat
+    // создаем нового игрока с ником
+    // добавляем в состояние игры
+    // если 2 игрока начинаем игру
+    void join(ClientHandler client, String nickname, String token) {
+        lock.lock();
+        try {
+            // создаем нового игрока
+            Player player = new Player(nickname);
+            gameState.addPlayer(player); // добавляем в состояние игры
+            clients.add(client);
+            client.setPlayer(player); // связываем с клиентом
+            client.setNickname(nickname); //сохраняем ник
+            client.setRoom(this);
+            client.setSessionToken(token);
+            sessions.put(token, new Session(token, player, client));
+            sendToClient(client, Protocol.createSession(token)); // с ним клиент сможет вернуться
+            // посреди раунда войти нельзя (игра идет только когда заняты оба места),
+            // поэтому снимок рисунка получает только вернувшийся игрок, см. resume
+
+            log("Игрок подключен: " + nickname + " (всего: " + gameState.getPlayers().size() + ")");
+
+            // если оба игрока подключены, начинаем игру
+            if (gameState.getPlayers().size() == MAX_PLAYERS) {
+                log("Оба игрока подключены, начинаем игру!");
+                // задержка чтобы второй клиент успел инициализироваться
+                // поток не спит, старт выполнит таймер
+                int round = ++roundToken;
+                server.schedule(() -> startGame(round), START_DELAY_MS);
+            } else {
+                log("Ожидаем второго игрока...");
+                // первому игроку об ожидании
+                sendToClient(client, Protocol.GAME_START + ":Ожидание 2-го игрока...");
+                updateScores(); // отправляем счет
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ОБРЫВ СОЕДИНЕНИЯ
+    // если игра идет вдвоем, игрок остается в комнате со своей ролью и счетом
+    // и ждет переподключения, статистика не пишется
+    // false если ждать нечего и игрока надо удалить сразу
+    boolean park(ClientHandler client) {
+        lock.lock();
+        try {
+            Session session = sessions.get(client.getSessionToken());
+            if (session == null || session.client != client
+                    || gameState.getPlayers().size() < MAX_PLAYERS) {
+                return false;
+            }
+            clients.remove(client);
+            client.setRoom(null);
+            session.client = null;
+            session.grace = server.schedule(() -> expire(session), GRACE_MS);
+
+            log("Игрок потерял связь: " + session.player.getNickname() + ", ждем " + GRACE_MS / 1000 + " с");
+            broadcast(Protocol.createChat("СИСТЕМА", session.player.getNickname()
+                    + " потерял связь, ждем переподключения"));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ПЕРЕПОДКЛЮЧЕНИЕ
+    // новое соединение занимает место игрока в его сессии,
+    // игроку заново отправляются счет, роль, слово и рисунок
+    boolean resume(ClientHandler client, String token) {
+        lock.lock();
+        try {
+            Session session = sessions.get(token);
+            if (session == null) {
+                return false; // ожидание уже кончилось
+            }
+            ClientHandler old = session.client;
+            if (old != null) {
+                // старое соединение еще не заметило обрыв: отцепляем его
+                clients.remove(old);
+                old.setRoom(null);
+                old.close();
+            }
+            if (session.grace != null) {
+                session.grace.cancel();
+                session.grace = null;
+            }
+
+            session.client = client;
+            clients.add(client);
+            client.setPlayer(session.player);
+            client.setNickname(session.player.getNickname());
+            client.setRoom(this);
+            client.setSessionToken(token);
+
+            log("Игрок вернулся: " + session.player.getNickname());
+            sendToClient(client, Protocol.createResume("OK"));
+            updateScores();
+            if (gameState.isGameStarted()) {
+                sendRole(client);
+                sendSnapshot(client);
+            }
+            broadcast(Protocol.createChat("СИСТЕМА", session.player.getNickname() + " вернулся"));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ожидание кончилось, игрок не вернулся: удаляем его насовсем
+    private void expire(Session session) {
+        boolean closed;
+        lock.lock();
+        try {
+            if (session.client != null || sessions.get(session.token) != session) {
+                return; // успел вернуться
+            }
+            closed = removePlayer(session);
+        } finally {
+            lock.unlock();
+        }
+        registry.released(this, session.token, closed);
+    }
+
+    // УДАЛЕНИЕ КЛИЕНТА
+    // возвращает true если комната опустела и закрыта
+    boolean removeClient(ClientHandler client) {
+        lock.lock();
+        try {
+            Session session = sessions.get(client.getSessionToken());
+            if (session == null || session.client != client) {
+                return false; // клиента уже заменило новое соединение
+            }
+            return removePlayer(session);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean removePlayer(Session session) {
+        // сохраняем статистику при отключении
+        server.saveStatistics(gameState.getPlayers());
+        finishRecording(ReplayWriter.OUTCOME_ABANDONED, null); // если раунд шел
+
+        if (session.client != null) {
+            clients.remove(session.client); //удаляем игрока из списка подключений
+            session.client.setRoom(null);
+        }
+        sessions.remove(session.token);
+        gameState.getPlayers().remove(session.player); //удаляем игрока из состояния игры
+        gameState.setGameStarted(false); // без второго игрока раунд не продолжить
+        roundToken++;                     // отложенный старт раунда больше не нужен
+        cancelTurnTimer();
+        log("Игрок отключен: " + session.player.getNickname());
+
+        if (clients.isEmpty() && !sessions.isEmpty()) {
+            closeParked();
+            return true;
+        }
+        return releaseSeat();
+    }
+
+    // в комнате остались только ждущие переподключения: закрываем ее,
+    // иначе новый игрок сел бы играть против отключенного
+    // свободного места тут не было (ждут только из полной комнаты),
+    // поэтому войти в нее за это время никто не мог
+    private void closeParked() {
+        for (Session parked : sessions.values()) {
+            if (parked.grace != null) {
+                parked.grace.cancel();
+            }
+            gameState.getPlayers().remove(parked.player);
+            registry.forget(parked.token, this);
+            log("Игрок не дождался соперника: " + parked.player.getNickname());
+        }
+        sessions.clear();
+        seats.set(-1);
+    }
+
+    // НАЧАЛО ИГРЫ (вызывает таймер)
+    // если пока ждали кто-то вышел, токен уже другой и старт отменяется
+    // устанавливаем роли первый рисует, второй угадывает
+    // выбираем случайное слово
+    // отправляем роли и информацию игрокам
+    private void startGame(int token) {
+        lock.lock();
+        try {
+            if (token != roundToken || gameState.getPlayers().size() < MAX_PLAYERS) {
+                return;
+            }
+            gameState.setGameStarted(true);
+
+            // у оставшегося игрока мог остаться рисунок прошлой игры
+            strokes.clear();
+            broadcast(Protocol.createClear());
+
+            // устанавливаем роли первый игрок рисует, второй угадывает
+            gameState.getPlayers().get(0).setDrawer(true);
+            gameState.getPlayers().get(1).setDrawer(false);
+
+            // выбираем случайное слово из списка
+            gameState.setCurrentWord(gameState.getRandomWord());
+            recorder.begin(id, gameState.getCurrentWord(), gameState.getPlayers());
+
+            log("Игра началась! Рисующий: " + gameState.getDrawer().getNickname()
+                    + ", угадывающий: " + gameState.getGuesser().getNickname()
+                    + ", слово: " + gameState.getCurrentWord());
+
+            // сначала отправляем счет
+            updateScores();
+
+            // отправляем роли и информацию о игре
+            sendRoles();
+            startTurnTimer();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // СЛЕДУЮЩИЙ РАУНД (вызывает таймер после паузы)
+    // меняем роли и слово, рассылаем новые роли
+    private void startNextRound(int token) {
+        lock.lock();
+        try {
+            if (token != roundToken || gameState.getPlayers().size() < MAX_PLAYERS) {
+                return;
+            }
+
+            // МЕНЯЕМ РОЛИ
+            gameState.nextRound();
+            gameState.setGameStarted(true);
+            strokes.clear();
+            recorder.begin(id, gameState.getCurrentWord(), gameState.getPlayers());
+
+            log("Новый раунд! Рисующий: " + gameState.getDrawer().getNickname()
+                    + ", новое слово: " + gameState.getCurrentWord());
+
+            // очищаем слово у всех перед отправкой новых ролей
+            broadcast(Protocol.createWord(""));
+
+            // отправляем новые роли и слово
+            sendRoles();
+
+            updateScores();  // обновляем счет
+            startTurnTimer();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ВРЕМЯ РАУНДА
+    // если за TURN_TIME_MS никто не угадал, раунд заканчивается сам
+    private void startTurnTimer() {
+        int token = roundToken;
+        turnTimeout = server.schedule(() -> onTurnTimeout(token), TURN_TIME_MS);
+    }
+
+    private void cancelTurnTimer() {
+        if (turnTimeout != null) {
+            turnTimeout.cancel();
+            turnTimeout = null;
+        }
+    }
+
+    // время вышло: показываем слово и после паузы меняем роли
+    private void onTurnTimeout(int token) {
+        lock.lock();
+        try {
+            if (token != roundToken || !gameState.isGameStarted()) {
+                return;
+            }
+            turnTimeout = null;
+            log("Время вышло, слово: " + gameState.getCurrentWord());
+            broadcast(Protocol.createChat("СИСТЕМА", "Время вышло! Слово: " + gameState.getCurrentWord()));
+            broadcast(Protocol.CLEAR + ":");
+            finishRecording(ReplayWriter.OUTCOME_TIMEOUT, null);
+            finishRound();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // пауза между раундами: догадки не принимаются,
+    // смену ролей выполнит таймер, поток не спит
+    private void finishRound() {
+        cancelTurnTimer();
+        strokes.clear(); // холст уже очищен у всех
+        gameState.setGameStarted(false);
+        int token = ++roundToken;
+        server.schedule(() -> startNextRound(token), ROUND_PAUSE_MS);
+    }
+
+    // итог раунда в запись, готовая запись уходит в очередь сервера
+    private void finishRecording(int outcome, String winner) {
+        byte[] round = recorder.finish(outcome, winner);
+        if (round != null) {
+            server.saveReplay(round);
+        }
+    }
+
+    // отправляем роли слово и подсказку каждому игроку
+    private void sendRoles() {
+        for (ClientHandler client : clients) {
+            sendRole(client);
+        }
+    }
+
+    private void sendRole(ClientHandler client) {
+        Player drawer = gameState.getDrawer();    // рисует
+        Player guesser = gameState.getGuesser();  // угадывает
+
+        if (client.getPlayer() == drawer) {
+            // рисующему отправляем роль и слово
+            sendToClient(client, Protocol.createRole("DRAWER"));
+            sendToClient(client, Protocol.createWord(gameState.getCurrentWord()));
+            sendToClient(client, Protocol.GAME_START + ":Начните рисовать!");
+        } else if (client.getPlayer() == guesser) {
+            // угадывающему отправляем роль и сообщение
+            sendToClient(client, Protocol.createRole("GUESSER"));
+            sendToClient(client, Protocol.GAME_START + ":Угадайте, что рисует " + drawer.getNickname());
+        }
+    }
+
+    //  ИГРОВАЯ ЛОГИКА
+    // ОБРАБОТКА ПОПЫТКИ УГАДАТЬ СЛОВО:
+    // проверяем угадал ли игрок слово (без учета регистра, Ё/Е и пробелов)
+    // если угадал даем очки сохраняем статистику меняем роли
+    // если почти угадал (пара опечаток) подсказываем только ему
+    // если не угадал отправляем догадку в чат
+    void handleGuess(ClientHandler client, String guess) {
+        lock.lock();
+        try {
+            Player player = client.getPlayer();
+            // проверяем что угадывает именно угадывающий игрок
+            if (player != null && !player.isDrawer() && gameState.isGameStarted()) {
+                String correctWord = gameState.getCurrentWord();
+                recorder.guess(player.getNickname(), guess.trim());
+                GuessMatcher.Result result = matcher.match(correctWord, guess);
+
+                if (result == GuessMatcher.Result.CORRECT) {
+                    // ОТВЕТ!
+                    player.addScore(10);  // даем 10 очков
+
+                    server.saveStatistics(gameState.getPlayers()); // сохраняем статистику в файл
+
+                    // отправляем всем сообщение об успехе
+                    String guesserRole = player.getNickname() + "(угадывает)";
+                    broadcast(Protocol.createChat("СИСТЕМА", guesserRole + " угадал(а)! Слово: " + correctWord));
+                    broadcast(Protocol.CORRECT + ":" + player.getNickname());
+
+                    broadcast(Protocol.CLEAR + ":");  // очищаем холст у всех
+
+                    finishRecording(ReplayWriter.OUTCOME_GUESSED, player.getNickname());
+                    finishRound();
+                } else if (result == GuessMatcher.Result.CLOSE) {
+                    // ПОЧТИ: в общий чат не пишем, чтобы не подсказывать слово
+                    sendToClient(client, Protocol.createChat("СИСТЕМА", "Близко! Проверьте буквы."));
+                } else {
+                    // НЕПРАВИЛЬНЫЙ ОТВЕТ
+                    String nicknameWithRole = player.getNickname() + "(угадывает)";
+                    broadcast(Protocol.createChat(nicknameWithRole, guess.trim()));  // догадка в чат
+                    sendToClient(client, Protocol.createChat("СИСТЕМА", "Неправильно! Попробуйте еще раз."));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ПЕРЕДАЧА РИСУНКА
+    // без блокировки комнаты: список клиентов копируется при записи,
+    // а игрок клиента и его роль volatile, поэтому рисование не ждет смену раунда
+    // проверяем что рисующий игрок отправил координаты
+    // пересылаем координаты угадывающему игроку
+    // каждый получатель получает отрезок в своем формате:
+    // текстовую строку DRAW или бинарный кадр, оба собираются один раз
+    void handleDraw(ClientHandler client, StrokeSegment segment) {
+        Player player = client.getPlayer();
+        if (player != null && player.isDrawer()) {
+            strokes.append(segment);
+            recorder.stroke(segment);
+            String message = null;
+            byte[] frame = null;
+            // отправляем координаты рисования другому игроку
+            for (ClientHandler c : clients) {
+                if (c != client && c.getPlayer() != null && !c.getPlayer().isDrawer()) {
+                    if (c.isBinary()) {
+                        if (frame == null) frame = BinaryProtocol.encodeSegment(segment);
+                        sendFrame(c, frame);
+                    } else {
+                        if (message == null) {
+                            message = Protocol.createDraw(segment.getX1(), segment.getY1(),
+                                    segment.getX2(), segment.getY2(), Protocol.colorName(segment.getColor()));
+                        }
+                        sendDrawing(c, message);
+                    }
+                }
+            }
+        }
+    }
+
+    // кусок штриха из нескольких точек, так же без блокировки
+    // бинарные клиенты получают один кадр POLYLINE,
+    // текстовые все отрезки строками DRAW, но одной записью в сокет
+    void handleStroke(ClientHandler client, StrokePolyline polyline) {
+        Player player = client.getPlayer();
+        if (player != null && player.isDrawer()) {
+            strokes.append(polyline);
+            recorder.stroke(polyline);
+            relayStroke(client, polyline);
+        }
+    }
+
+    // разослать кусок штриха всем кроме рисующего
+    private void relayStroke(ClientHandler client, StrokePolyline polyline) {
+        String lines = null;
+        byte[] frame = null;
+        for (ClientHandler c : clients) {
+            if (c != client && c.getPlayer() != null && !c.getPlayer().isDrawer()) {
+                if (c.isBinary()) {
+                    if (frame == null) frame = BinaryProtocol.encodePolyline(polyline);
+                    sendFrame(c, frame);
+                } else {
+                    if (lines == null) lines = drawLines(polyline);
+                    if (!lines.isEmpty()) sendDrawing(c, lines);
+                }
+            }
+        }
+    }
+
+    // ОТМЕНА И ВОЗВРАТ ШТРИХА, тоже без блокировки комнаты
+    // отменить можно только свой штрих из последних MAX_UNDO,
+    // остальные получают UNDO и убирают штрих у себя
+    // в строках DRAW номера штриха нет, поэтому текстовым клиентам
+    // вместо UNDO приходит CLEAR и весь оставшийся рисунок заново
+    void handleUndo(ClientHandler client, String data) {
+        Player player = client.getPlayer();
+        int strokeId = Protocol.parseStrokeId(data);
+        if (player == null || !player.isDrawer() || strokeId < 0) return;
+        if (!strokes.undo(strokeId)) {
+            // штриха нет или он старше MAX_UNDO: рисующий уже спрятал его у себя,
+            // REDO в ответ возвращает штрих на его холст
+            sendToClient(client, Protocol.createRedo(strokeId));
+            return;
+        }
+        recorder.undo(strokeId);
+        String message = Protocol.createUndo(strokeId);
+        String lines = null;
+        for (ClientHandler c : clients) {
+            if (c != client && c.getPlayer() != null && !c.getPlayer().isDrawer()) {
+                if (c.isBinary()) {
+                    sendToClient(c, message);
+                } else {
+                    if (lines == null) lines = logLines();
+                    sendToClient(c, Protocol.createClear());
+                    if (!lines.isEmpty()) sendDrawing(c, lines);
+                }
+            }
+        }
+    }
+
+    // вернуть последний отмененный штрих: остальным он приходит заново
+    // обычными кусками, так что им не нужно помнить отмененное
+    void handleRedo(ClientHandler client, String data) {
+        Player player = client.getPlayer();
+        int strokeId = Protocol.parseStrokeId(data);
+        if (player == null || !player.isDrawer() || strokeId < 0) return;
+        byte[] records = strokes.redo(strokeId);
+        if (records == null) {
+            // вернуть нечего: рисующий уже показал штрих у себя, UNDO снова его прячет
+            sendToClient(client, Protocol.createUndo(strokeId));
+            return;
+        }
+        forEachPiece(records, polyline -> {
+            recorder.stroke(polyline);
+            relayStroke(client, polyline);
+        });
+    }
+
+    // куски штриха из записей StrokeLog ([длина varint][данные POLYLINE]...)
+    // кусок переиспользуется: REDO и рисунок для текстового клиента редкие, одного объекта хватит
+    private static void forEachPiece(byte[] records, Consumer<StrokePolyline> action) {
+        StrokePolyline polyline = new StrokePolyline();
+        int pos = 0;
+        while (pos < records.length) {
+            long recordLength = BinaryProtocol.readVarint(records, pos, records.length);
+            pos += BinaryProtocol.varintSize(recordLength);
+            if (BinaryProtocol.decodePolyline(records, pos, (int) recordLength, polyline)) {
+                action.accept(polyline);
+            }
+            pos += (int) recordLength;
+        }
+    }
+
+    // рисунок раунда строками DRAW, одной записью в сокет
+    // часть уже нарисованная сервером в картинку (очень длинный раунд) так не передается
+    private String logLines() {
+        StringBuilder sb = new StringBuilder();
+        forEachPiece(strokes.records(), polyline -> {
+            String lines = drawLines(polyline);
+            if (!lines.isEmpty()) {
+                if (sb.length() > 0) sb.append('\n');
+                sb.append(lines);
+            }
+        });
+        return sb.toString();
+    }
+
+    // кусок штриха как строки DRAW для клиентов без STROKE
+    private static String drawLines(StrokePolyline polyline) {
+        StringBuilder sb = new StringBuilder(polyline.getCount() * 28);
+        String color = Protocol.colorName(polyline.getColor());
+        for (int i = 1; i < polyline.getCount(); i++) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(Protocol.createDraw(polyline.getX(i - 1), polyline.getY(i - 1),
+                    polyline.getX(i), polyline.getY(i), color));
+        }
+        return sb.toString();
+    }
+
+    // очистка холста без блокировки, как и рисунок
+    // стирает рисунок для снимков и пишется в запись раунда, поэтому только рисующий
+    void handleClear(ClientHandler client) {
+        Player player = client.getPlayer();
+        if (player == null || !player.isDrawer()) return;
+        strokes.clear();
+        recorder.clear();
+        broadcast(Protocol.CLEAR + ":");  // очистка холста
+    }
+
+    void handleChat(ClientHandler client, String data) {
+        lock.lock();
+        try {
+            Player player = client.getPlayer();
+            if (player == null) return;
+
+            String nickname = client.getNickname();
+            String message = data.trim();
+
+            // проверяем не пытается ли рисующий написать слово загаданное
+            // сравниваем как догадку: без регистра, Ё/Е, пробелов и знаков ("к о т" тоже слово)
+            if (player.isDrawer() && gameState.getCurrentWord() != null) {
+                if (matcher.match(gameState.getCurrentWord(), message) == GuessMatcher.Result.CORRECT) {
+                    sendToClient(client, Protocol.createChat("СИСТЕМА", "Ошибка: нельзя писать слова, которые нужно угадывать!"));
+                    return;
+                }
+            }
+
+            // ник(роль):сообщение
+            String role = player.isDrawer() ? "рисует" : "угадывает";
+            String nicknameWithRole = nickname + "(" + role + ")";
+            recorder.chat(nickname, message);
+            broadcast(Protocol.createChat(nicknameWithRole, message));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void updateScores() {
+        if (gameState.getPlayers().size() == 2) {
+            Player p1 = gameState.getPlayers().get(0);
+            Player p2 = gameState.getPlayers().get(1);
+            String scoreMsg = Protocol.createScore(p1.getNickname(), p1.getScore(),
+                    p2.getNickname(), p2.getScore());
+            broadcast(scoreMsg);
+        }
+    }
+
+    // МЕТОДЫ ОТПРАВКИ
+    private void sendToClient(ClientHandler client, String message) {
+        try {
+            client.send(message); //пишем в сокет и отправляем флэш
+        } catch (IOException e) {
+            System.err.println("Ошибка отправки клиенту " + client.getNickname() + ": " + e.getMessage());
+        }
+    }
+
+    // весь рисунок раунда одним сжатым кадром
+    // текстовые клиенты снимок не понимают, им рисунок приходит строками DRAW
+    private void sendSnapshot(ClientHandler client) {
+        if (strokes.isEmpty()) return;
+        if (client.isBinary()) {
+            sendFrame(client, strokes.snapshot());
+        } else {
+            String lines = logLines();
+            if (!lines.isEmpty()) sendDrawing(client, lines);
+        }
+    }
+
+    private void sendDrawing(ClientHandler client, String lines) {
+        try {
+            client.sendDrawing(lines);
+        } catch (IOException e) {
+            System.err.println("Ошибка отправки клиенту " + client.getNickname() + ": " + e.getMessage());
+        }
+    }
+
+    private void sendFrame(ClientHandler client, byte[] frame) {
+        try {
+            client.sendFrame(frame);
+        } catch (IOException e) {
+            System.err.println("Ошибка отправки клиенту " + client.getNickname() + ": " + e.getMessage());
+        }
+    }
+
+    // отправка сообщения всем клиентам комнаты
+    private void broadcast(String message) {
+        for (ClientHandler client : clients) {
+            sendToClient(client, message);
+        }
+    }
+
+    private void log(String message) {
+        System.out.println("[комната " + id + "] " + message);
+    }
+}
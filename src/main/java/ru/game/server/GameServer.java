@@ -1,33 +1,106 @@
 package ru.game.server;
 
-import ru.game.model.GameState;
 import ru.game.model.Player;
+import ru.game.protocol.BinaryProtocol;
 import ru.game.protocol.Protocol;
+import ru.game.protocol.StrokePolyline;
+import ru.game.protocol.StrokeSegment;
 import ru.game.storage.GameStorage;
+import ru.game.storage.JdbcStatsStore;
+import ru.game.storage.MappedStatsStore;
+import ru.game.storage.ReplayWriter;
+import ru.game.storage.StatsRepository;
+import ru.game.storage.StatsStore;
 
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.ArrayList;
+import java.sql.SQLException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * сервер для игры
- * создает отдельный поток для каждого клиента
- * читает его сообщения передает их серверу
+ * держит много игровых комнат по 2 игрока в каждой
+ * в блокирующем режиме создает отдельный поток для каждого клиента
+ * (обычный или виртуальный),
+ * в режиме NIO обслуживает всех клиентов несколькими потоками
+ * читает сообщения клиентов передает их комнатам
  * отправляет ответы и закрывает
  * соединение при отключении
  */
 public class GameServer {
     private static final int PORT = 8888;            // порт для подключения
+    static final int BACKLOG = 1024;                 // очередь ожидающих подключений
+    private static final int IO_THREADS =            // потоки ввода-вывода в режиме NIO
+            Runtime.getRuntime().availableProcessors();
     private ServerSocket serverSocket;               // сокет сервера
-    private GameState gameState;                     // состояние игры
-    private List<ClientHandler> clients;             // список подключенных клиентов
+    private final RoomRegistry rooms;                // все игровые комнаты
+    private final StatsRepository stats;             // статистика игроков, -Dgame.stats=json|mapped|h2
+    private final Leaderboard leaderboard;           // рейтинг по сумме очков
+    private final ReplayWriter replays;              // записи раундов, null если -Dgame.replays=false
+    private static final long TIMER_TICK_MS = 50;    // точность таймера комнат
+    private static final long MERGE_FLUSH_MS = 50;   // склеенные отрезки сверх лимита ждут не дольше
+    static final int OUTBOUND_LIMIT =                // байт в очереди отправки одного клиента
+            Integer.getInteger("game.outboundLimit", 256 * 1024);
+    static final OutboundQueue.Policy SLOW_CONSUMER = // -Dgame.slowConsumer=drop|disconnect
+            OutboundQueue.Policy.fromProperty(System.getProperty("game.slowConsumer"));
+    private final WheelTimer timer;                  // отложенные события комнат
+    private final ExecutorService roomTasks;         // выполнение событий таймера
+    private static final int ROOM_TASK_THREADS =     // потоки событий комнат, -Dgame.roomThreads
+            Integer.getInteger("game.roomThreads", Runtime.getRuntime().availableProcessors());
+    private final ServerMetrics metrics;             // счетчики ограничения сообщений
+    static final boolean RATE_LIMIT =                // -Dgame.rateLimit=false для нагрузочных замеров
+            Boolean.parseBoolean(System.getProperty("game.rateLimit", "true"));
+    private static final long METRICS_INTERVAL_MS =  // как часто печатать счетчики, 0 - не печатать
+            Integer.getInteger("game.metricsInterval", 60) * 1000L;
 
     // СОЗДАНИЕ СЕРВЕРА
-    public GameServer() {
-        this.clients = new ArrayList<>();
-        this.gameState = new GameState();
+    public GameServer() throws IOException {
+        this(openStats(System.getProperty("game.stats", "json")),
+                Boolean.parseBoolean(System.getProperty("game.replays", "true"))
+                        ? new ReplayWriter(GameStorage.REPLAY_DIR) : null);
+        // при остановке сервера сбрасываем статистику и записи на диск
+        Runtime.getRuntime().addShutdownHook(new Thread(stats::close, "stats-shutdown"));
+        if (replays != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(replays::close, "replay-shutdown"));
+        }
+    }
+
+    // сервер с готовым хранилищем без сокета, так его собирают тесты
+    GameServer(StatsRepository stats, ReplayWriter replays) {
+        this.rooms = new RoomRegistry(this);
+        this.stats = stats;
+        this.leaderboard = new Leaderboard(stats.all());
+        this.replays = replays;
+        // пул ограничен: если в один тик сработают таймеры тысяч комнат,
+        // события встанут в очередь, а не создадут по потоку на каждое
+        this.roomTasks = Executors.newFixedThreadPool(Math.max(1, ROOM_TASK_THREADS), daemonThreads("room-task-"));
+        this.timer = new WheelTimer(TIMER_TICK_MS, roomTasks, "room-timer");
+        this.metrics = new ServerMetrics();
+        if (METRICS_INTERVAL_MS > 0) {
+            timer.schedule(this::reportMetrics, METRICS_INTERVAL_MS);
+        }
+    }
+
+    // json: снимок game_stats.json и журнал изменений
+    // mapped: файл записей game_stats.dat, перенос из json через StatsMigration
+    // h2: встроенная база game_stats_db
+    private static StatsRepository openStats(String kind) throws IOException {
+        if (kind.equalsIgnoreCase("mapped")) {
+            return new MappedStatsStore(GameStorage.STATS_MAPPED_FILE);
+        }
+        if (kind.equalsIgnoreCase("h2")) {
+            try {
+                return new JdbcStatsStore(GameStorage.STATS_DB);
+            } catch (SQLException e) {
+                throw new IOException("не удалось открыть базу статистики: " + e.getMessage(), e);
+            }
+        }
+        return new StatsStore(GameStorage.STATS_FILE, GameStorage.STATS_LOG_FILE);
     }
 
     // ТОЧКА ВХОДА ПРОГРАММЫ
@@ -37,10 +110,14 @@ public class GameServer {
         try {
             System.out.println("Создание объекта GameServer...");
             System.out.flush();
+            // режим транспорта первым аргументом: blocking, virtual или nio
+            TransportMode mode = args.length > 0
+                    ? TransportMode.valueOf(args[0].toUpperCase())
+                    : TransportMode.BLOCKING;
             GameServer server = new GameServer();    // Создаем сервер
-            System.out.println("Сервер создан, запускаем...");
+            System.out.println("Сервер создан, запускаем в режиме " + mode + "...");
             System.out.flush();
-            server.start();                          // Запускаем сервер
+            server.start(mode);                      // Запускаем сервер
         } catch (Exception e) {
             System.err.println("КРИТИЧЕСКАЯ ОШИБКА при запуске сервера:");
             e.printStackTrace();
@@ -48,14 +125,32 @@ public class GameServer {
         }
     }
 
+    // режим сетевого транспорта
+    public enum TransportMode {
+        BLOCKING,   // отдельный поток на каждого клиента
+        VIRTUAL,    // отдельный виртуальный поток на каждого клиента (Java 21+)
+        NIO         // несколько потоков с Selector на всех клиентов
+    }
+
+    public void start() {
+        start(TransportMode.BLOCKING);
+    }
+
     //ЗАПУСК СЕРВЕРА
-    // создаем ServerSocket на порту
+    // в режиме NIO отдаем работу NioServer
+    // иначе создаем ServerSocket на порту
     // запускаем бесконечный цикл принятия клиентов
-    // для каждого клиента создаем свой обработчик ClientHandler
-    // запускаем ClientHandler в отдельном потоке
-    public void start() {
+    // для каждого клиента создаем свой обработчик SocketClientHandler
+    // запускаем его в отдельном потоке, обычном или виртуальном
+    public void start(TransportMode mode) {
         try {
-            serverSocket = new ServerSocket(PORT);   // создаем серверный сокет
+            if (mode == TransportMode.NIO) {
+                new NioServer(this, PORT, IO_THREADS).run();
+                return;
+            }
+            ThreadFactory threads = clientThreads(mode);
+
+            serverSocket = new ServerSocket(PORT, BACKLOG);   // создаем серверный сокет
             System.out.println("Сервер запущен на порту " + PORT);
             System.out.println("Ожидание игроков...");
             System.out.println("__________________________________");
@@ -66,9 +161,8 @@ public class GameServer {
                 System.out.println("Новое подключение: " + clientSocket.getInetAddress());
 
                 // для каждого клиента создаем обработчик
-                ClientHandler handler = new ClientHandler(clientSocket, this);
-                clients.add(handler);  // добавляем в список
-                new Thread(handler).start(); // запускаем в отдельном потоке
+                SocketClientHandler handler = new SocketClientHandler(clientSocket, this, threads);
+                threads.newThread(handler).start(); // запускаем в отдельном потоке
             }
         } catch (java.net.BindException e) {
             System.err.println("__________________________________");
@@ -84,371 +178,287 @@ public class GameServer {
         }
     }
 
-    // КЛАСС ClientHandler
-    /**
-     * обработчик подключения клиента
-     * КАЖДЫЙ КЛИЕНТ В ОТДЕЛЬНОМ ПОТОКЕ:
-     * имеет свое соединение Socket
-     * читает сообщения от клиента BufferedReader
-     * отправляет ответы клиенту PrintWriter
-     * работает параллельно с другими клиентами
-     */
-    static class ClientHandler implements Runnable {
-        private Socket socket;        // Соединение с клиентом
-        private GameServer server;    // Ссылка на главный сервер
-        private BufferedReader in;    // ОТ клиента
-        private PrintWriter out;      //  КЛИЕНТУ
-        private Player player;
-        private String nickname;
-
-        // КОНСТРУКТОР ClientHandler
-        public ClientHandler(Socket socket, GameServer server) {
-            this.socket = socket;
-            this.server = server;
-        }
-
-        //  ГЛАВНЫЙ ЦИКЛ КЛИЕНТА
-        // МЕТОД ВЫПОЛНЯЕТСЯ ПРИ ЗАПУСКЕ ПОТОКА:
-        // устанавливает потоки ввода и вывода
-        // запускает бесконечный цикл чтения сообщений
-        // разбираем сообщения через Protocol
-        //передаем серверу на обработку
-        @Override
-        public void run() {
-            try {
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                out = new PrintWriter(socket.getOutputStream(), true); // autoflush сразу отправлять
-
-                String line;
-                // пока клиент не отключится
-                while ((line = in.readLine()) != null) {
-                    // разбираем строку в объект сообщения
-                    Protocol.Message message = Protocol.parse(line);
-                    if (message != null) {
-                        // передаем сообщение серверу для обработки
-                        server.handleMessage(this, message);
-                    }
-                }
-            } catch (IOException e) {
-                System.out.println("Клиент отключен: " + (nickname != null ? nickname : "unknown"));
-            } finally { // В ЛЮБОМ СЛУЧАЕ
-                try {
-                    server.removeClient(this);  // удаляем клиента из списка
-                    socket.close();             // закрываем соединение
-                } catch (IOException e) {
-                    System.err.println("Ошибка закрытия соединения: " + e.getMessage());
-                }
+    // потоки для клиентов блокирующего режима
+    // виртуальные если их поддерживает JDK, иначе обычные
+    private static ThreadFactory clientThreads(TransportMode mode) {
+        if (mode == TransportMode.VIRTUAL) {
+            ThreadFactory virtual = VirtualThreads.factory("client-");
+            if (virtual != null) {
+                return virtual;
             }
+            System.err.println("Виртуальные потоки не поддерживаются (нужна Java 21+), используем обычные");
         }
+        return Thread::new;
+    }
 
-        // ОТПРАВКА СООБЩЕНИЯ КЛИЕНТУ
-        public void send(String message) throws IOException {
-            out.println(message);//пишет сообщение в выходной поток
-            out.flush();
-        }
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 
-        // БЕЗОПАСНОЕ ЗАКРЫТИЕ
-        public void close() {
-            try {
-                // проверяем что сокет существует и еще не закрыт
-                if (socket != null && !socket.isClosed()) {
-                    socket.close(); //закрваем
-                }
-            } catch (IOException e) {
-                System.err.println("Ошибка закрытия соединения: " + e.getMessage());
-            }
-        }
+    // ОТЛОЖЕННОЕ СОБЫТИЕ КОМНАТЫ
+    // таймер только отсчитывает время, само событие выполняется в пуле,
+    // чтобы медленная отправка в одной комнате не задерживала другие
+    WheelTimer.Timeout schedule(Runnable task, long delayMs) {
+        return timer.schedule(task, delayMs);
+    }
 
-        // геттеры и сеттеры
-        public Player getPlayer() { return player; }
-        public void setPlayer(Player player) { this.player = player; }
-        public String getNickname() { return nickname; }
-        public void setNickname(String nickname) { this.nickname = nickname; }
+    // счетчики в лог, только если что-то изменилось
+    private void reportMetrics() {
+        String report = metrics.report();
+        if (report != null) {
+            System.out.println(report);
+        }
+        timer.schedule(this::reportMetrics, METRICS_INTERVAL_MS);
     }
 
     // ОБРАБОЧИК КОМАНД
-    // synchronized защита от гонки данных
+    // глобальной блокировки нет, каждая комната блокирует только себя
     // извлекаем команду и данные из сообщения
-    // делегируем соответствующему обработчику
-    public synchronized void handleMessage(ClientHandler client, Protocol.Message message) {
+    // JOIN подбирает комнату, остальные команды уходят в комнату клиента
+    // частоту каждого вида команд ограничивает RateLimiter клиента,
+    // рисунок проверяется отдельно, потому что лишние отрезки склеиваются
+    public void handleMessage(ClientHandler client, Protocol.Message message) {
         String command = message.getCommand();
         String data = message.getData();
+        RateLimiter.Kind kind = RateLimiter.kindOf(command);
+        if (kind != null && kind != RateLimiter.Kind.DRAW && !admit(client, kind)) {
+            return;
+        }
 
-        // в зависимости от команды вызываем соответствующий метод
+        if (Protocol.JOIN.equals(command)) {  // присоединение к игре
+            if (client.getRoom() == null && negotiate(client, data)) {
+                // длинный ник обрезаем сразу, чтобы статистика и рейтинг знали его одинаково
+                rooms.join(client, Protocol.limitNickname(Protocol.joinNickname(data)));
+            }
+            return;
+        }
+        if (Protocol.RESUME.equals(command)) { // переподключение: RESUME:токен|BIN
+            if (client.getRoom() == null && negotiate(client, data)
+                    && !rooms.resume(client, Protocol.joinNickname(data))) {
+                try {
+                    client.send(Protocol.createResume("FAIL")); // клиент войдет заново через JOIN
+                } catch (IOException e) {
+                    client.close();
+                }
+            }
+            return;
+        }
+        if (Protocol.LEADERBOARD.equals(command)) { // рейтинг можно смотреть и вне комнаты
+            sendLeaderboard(client, data);
+            return;
+        }
+        if (Protocol.LEAVE.equals(command)) {  // игрок ушел сам
+            rooms.leaveNow(client);
+            client.close();
+            return;
+        }
+
+        GameRoom room = client.getRoom();
+        if (room == null) return; // клиент еще не вошел в комнату
+
+        // в зависимости от команды вызываем соответствующий метод комнаты
         switch (command) {
-            case Protocol.JOIN:    // присоединение к игре
-                handleJoin(client, data);
-                break;
             case Protocol.DRAW:    // рисование
-                handleDraw(client, data);
+                if (Protocol.parseDraw(data, client.getSegment())) {
+                    drawSegment(client, room, client.getSegment());
+                }
+                break;
+            case Protocol.STROKE:  // несколько точек штриха одним сообщением
+                if (Protocol.parseStroke(data, client.getPolyline())) {
+                    drawStroke(client, room, client.getPolyline());
+                }
                 break;
             case Protocol.GUESS:   // попытка угадать слово
-                handleGuess(client, data);
+                room.handleGuess(client, data);
                 break;
+            // склеенные отрезки уходят раньше команды, иначе таймер
+            // отправил бы их после нее и вернул бы отмененный штрих
             case Protocol.CLEAR:   // очистка холста
-                handleClear(client);
+                flushMerged(client, room);
+                room.handleClear(client);
+                break;
+            case Protocol.UNDO:    // отмена своего штриха
+                flushMerged(client, room);
+                room.handleUndo(client, data);
+                break;
+            case Protocol.REDO:    // возврат отмененного штриха
+                flushMerged(client, room);
+                room.handleRedo(client, data);
                 break;
             case Protocol.CHAT:    // сообщение в чат
-                handleChat(client, data);
+                room.handleChat(client, data);
                 break;
         }
     }
 
-    // ПРИСОЕДИНЕНИЕ К ИГРЕ
-    // проверяем не больше ли 2 игроков отказываем третьему
-    // создаем нового игрока с ником
-    // добавляем в состояние игры
-    // если 2 игрока начинаем игру
-    private void handleJoin(ClientHandler client, String nickname) {
-        if (gameState.getPlayers().size() >= 2) {
-            System.out.println("Попытка подключения третьего игрока: " + nickname);
-            sendToClient(client, Protocol.ERROR + ":Сервер полон (максимум 2 игрока)");
-            // даем время на отправку сообщения
-            try { Thread.sleep(200); } catch (InterruptedException e) {}
-            // закрываем соединение с третьим клиентом
-            System.out.println("Отключение третьего игрока: " + nickname);
-            client.close();
-            removeClient(client);
-            return;
-        }
-
-        // создаем нового игрока
-        Player player = new Player(nickname);
-        gameState.addPlayer(player); // добавляем в состояние игры
-        client.setPlayer(player); // связываем с клиентом
-        client.setNickname(nickname); //сохраняем ник
-
-        System.out.println("Игрок подключен: " + nickname + " (всего: " + gameState.getPlayers().size() + ")");
-
-        // если оба игрока подключены, начинаем игру
-        if (gameState.getPlayers().size() == 2) {
-            System.out.println("Оба игрока подключены, начинаем игру!");
-            // задержка чтобы второй клиент успел инициализироваться
-            try { Thread.sleep(100);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+    // клиент может попросить бинарные кадры: JOIN:ник|BIN
+    // false если соединение уже закрыто
+    private boolean negotiate(ClientHandler client, String data) {
+        if (Protocol.joinHasFeature(data, Protocol.FEATURE_BINARY)) {
+            client.setBinary(true);
+            try {
+                client.send(Protocol.createProto(Protocol.FEATURE_BINARY));
+            } catch (IOException e) {
+                return false;
             }
-            startGame();  // начинае игру
-        } else {
-            System.out.println("Ожидаем второго игрока...");
-            // первому игроку об ожидании
-            sendToClient(client, Protocol.GAME_START + ":Ожидание 2-го игрока...");
-            updateScores(); // отправляем счет
         }
+        return true;
     }
 
-    // НАЧАЛО ИГРЫ
-    // устанавливаем роли первый рисует, второй угадывает
-    // выбираем случайное слово
-    // отправляем роли и информацию игрокам
-    private void startGame() {
-        gameState.setGameStarted(true);
-
-        // устанавливаем роли первый игрок рисует, второй угадывает
-        if (gameState.getPlayers().size() == 2) {
-            gameState.getPlayers().get(0).setDrawer(true);
-            gameState.getPlayers().get(1).setDrawer(false);
-        }
+    // ОБРАБОТЧИК БИНАРНЫХ КАДРОВ
+    // данные кадра лежат в буфере чтения, разбираем сразу в отрезок клиента
+    public void handleFrame(ClientHandler client, int type, byte[] data, int offset, int length) {
+        GameRoom room = client.getRoom();
+        if (room == null) return;
 
-        // выбираем случайное слово из списка
-        gameState.setCurrentWord(gameState.getRandomWord());
-
-        System.out.println("Игра началась!");
-        System.out.println("Рисующий: " + gameState.getDrawer().getNickname());
-        System.out.println("Угадывающий: " + gameState.getGuesser().getNickname());
-        System.out.println("Слово: " + gameState.getCurrentWord());
-
-        Player drawer = gameState.getDrawer();    // рисует
-        Player guesser = gameState.getGuesser();  // угадывает
-
-        // сначала отправляем счет
-        updateScores();
-
-        // отправляем роли и информацию о игре
-        for (ClientHandler client : clients) {
-            if (client.getPlayer() == drawer) {
-                // рисующему отправляем роль и слово
-                sendToClient(client, Protocol.createRole("DRAWER"));
-                sendToClient(client, Protocol.createWord(gameState.getCurrentWord()));
-                sendToClient(client, Protocol.GAME_START + ":Начните рисовать!");
-            } else if (client.getPlayer() == guesser) {
-                // угадывающему отправляем роль и сообщение
-                sendToClient(client, Protocol.createRole("GUESSER"));
-                sendToClient(client, Protocol.GAME_START + ":Угадайте, что рисует " + drawer.getNickname());
+        if (type == BinaryProtocol.SEGMENT) {
+            if (BinaryProtocol.decodeSegment(data, offset, length, client.getSegment())) {
+                drawSegment(client, room, client.getSegment());
+            }
+        } else if (type == BinaryProtocol.POLYLINE) {
+            if (BinaryProtocol.decodePolyline(data, offset, length, client.getPolyline())) {
+                drawStroke(client, room, client.getPolyline());
             }
         }
     }
 
-    //  ИГРОВАЯ ЛОГИКА
-    // ОБРАБОТКА ПОПЫТКИ УГАДАТЬ СЛОВО:
-    // проверяем угадал ли игрок слово
-    // если угадал даем очки сохраняем статистику меняем роли
-    // если не угадал отправляем догадку в чат
-    private void handleGuess(ClientHandler client, String guess) {
-        Player player = client.getPlayer();
-        // проверяем что угадывает именно угадывающий игрок
-        if (player != null && !player.isDrawer()) {
-            String correctWord = gameState.getCurrentWord();
-
-            if (guess.trim().equalsIgnoreCase(correctWord)) {
-                // ОТВЕТ!
-                player.addScore(10);  // даем 10 очков
-
-                saveStatistics(); // сохраняем статистику в файл
-
-                // отправляем всем сообщение об успехе
-                String guesserRole = player.getNickname() + "(угадывает)";
-                broadcast(Protocol.createChat("СИСТЕМА", guesserRole + " угадал(а)! Слово: " + correctWord));
-                broadcast(Protocol.CORRECT + ":" + player.getNickname());
-
-                broadcast(Protocol.CLEAR + ":");  // очищаем холст у всех
-
-                try { Thread.sleep(2000);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-
-                // МЕНЯЕМ РОЛИ
-                gameState.nextRound();
-
-                System.out.println("Новый раунд! Рисующий: " + gameState.getDrawer().getNickname());
-                System.out.println("Новое слово: " + gameState.getCurrentWord());
-
-                // очищаем слово у всех перед отправкой новых ролей
-                for (ClientHandler c : clients) {
-                    sendToClient(c, Protocol.createWord(""));
-                }
-
-                // отправляем новые роли и слово
-                Player drawer = gameState.getDrawer();
-                Player guesser = gameState.getGuesser();
-
-                for (ClientHandler c : clients) {
-                    if (c.getPlayer() == drawer) {
-                        // рисующему отправляем роль и новое слово
-                        sendToClient(c, Protocol.createRole("DRAWER"));
-                        sendToClient(c, Protocol.createWord(gameState.getCurrentWord()));
-                        sendToClient(c, Protocol.GAME_START + ":Начните рисовать!");
-                    } else if (c.getPlayer() == guesser) {
-                        // угадывающему отправляем роль
-                        sendToClient(c, Protocol.createRole("GUESSER"));
-                        sendToClient(c, Protocol.GAME_START + ":Угадайте, что рисует " + drawer.getNickname());
-                    }
-                }
-
-                updateScores();  // обновляем счет
-            } else {
-                // НЕПРАВИЛЬНЫЙ ОТВЕТ
-                String nicknameWithRole = player.getNickname() + "(угадывает)";
-                broadcast(Protocol.createChat(nicknameWithRole, guess.trim()));  // догадка в чат
-                sendToClient(client, Protocol.createChat("СИСТЕМА", "Неправильно! Попробуйте еще раз."));
-            }
+    // ОГРАНИЧЕНИЕ ЧАСТОТЫ
+    // false если сообщение сверх лимита; кто превышает лимит долго, отключается
+    private boolean admit(ClientHandler client, RateLimiter.Kind kind) {
+        if (client.isClosed()) return false; // остаток буфера уже отключенного клиента
+        if (!RATE_LIMIT) return true;
+        RateLimiter limiter = client.getLimiter();
+        long now = System.nanoTime();
+        if (limiter.tryAcquire(kind, now)) {
+            metrics.accepted(kind);
+            return true;
         }
+        metrics.limited(kind);
+        if (limiter.strike(now)) {
+            metrics.disconnected();
+            System.err.println("Клиент " + client.getNickname() + " превышает лимит сообщений, отключаем");
+            client.close();
+        }
+        return false;
     }
 
-    // ПЕРЕДАЧА РИСУНКА
-    // проверяем что рисующий игрок отправил координаты
-    // пересылаем координаты угадывающему игроку
-    private void handleDraw(ClientHandler client, String data) {
-        Player player = client.getPlayer();
-        if (player != null && player.isDrawer()) {
-            // отправляем координаты рисования другому игроку
-            for (ClientHandler c : clients) {
-                if (c != client && c.getPlayer() != null && !c.getPlayer().isDrawer()) {
-                    sendToClient(c, Protocol.DRAW + ":" + data);
+    // отрезок сверх лимита не пропадает, если продолжает предыдущий:
+    // такие отрезки копятся в один штрих и уходят перед следующим разрешенным
+    // рисунком или через MERGE_FLUSH_MS, если рисунок на этом кончился
+    // склеенный штрих получает номер последнего штриха клиента, его можно отменить
+    // merged трогают поток чтения и таймер, поэтому под его замком
+    private void drawSegment(ClientHandler client, GameRoom room, StrokeSegment segment) {
+        if (admit(client, RateLimiter.Kind.DRAW)) {
+            flushMerged(client, room);
+            room.handleDraw(client, segment);
+        } else if (!client.isClosed()) {
+            StrokePolyline merged = client.getMerged();
+            boolean added;
+            boolean schedule = false;
+            synchronized (merged) {
+                added = merge(merged, segment, client.getStrokeId());
+                if (added && !client.isMergeFlushScheduled()) {
+                    client.setMergeFlushScheduled(true);
+                    schedule = true;
                 }
             }
+            if (added) {
+                metrics.merged();
+            } else {
+                metrics.dropped();
+            }
+            if (schedule) {
+                schedule(() -> flushMerged(client, room), MERGE_FLUSH_MS);
+            }
         }
     }
 
-    // МЕТОДЫ ОТПРАВКИ
-    private void sendToClient(ClientHandler client, String message) {
-        try {
-            client.send(message); //пишем в сокет и отправляем флэш
-        } catch (IOException e) {
-            System.err.println("Ошибка отправки клиенту " + client.getNickname() + ": " + e.getMessage());
+    // кусок штриха уже пачка точек, сверх лимита он выбрасывается
+    private void drawStroke(ClientHandler client, GameRoom room, StrokePolyline polyline) {
+        client.setStrokeId(polyline.getStrokeId());
+        if (admit(client, RateLimiter.Kind.DRAW)) {
+            flushMerged(client, room);
+            room.handleStroke(client, polyline);
+        } else if (!client.isClosed()) {
+            metrics.dropped();
         }
     }
 
-    // отправка сообщения всем клиентам
-    private void broadcast(String message) {
-        for (ClientHandler client : clients) {
-            sendToClient(client, message);
+    private static boolean merge(StrokePolyline merged, StrokeSegment segment, int strokeId) {
+        int count = merged.getCount();
+        if (count == 0) {
+            merged.reset(strokeId, segment.getColor());
+            merged.add(segment.getX1(), segment.getY1());
+            return merged.add(segment.getX2(), segment.getY2());
         }
+        // только продолжение того же штриха, иначе линия соединила бы чужие точки
+        return merged.getColor() == segment.getColor()
+                && merged.getX(count - 1) == segment.getX1()
+                && merged.getY(count - 1) == segment.getY1()
+                && merged.add(segment.getX2(), segment.getY2());
     }
 
-    private void handleClear(ClientHandler client) {
-        broadcast(Protocol.CLEAR + ":");  // очистка холста
-    }
-
-    private void handleChat(ClientHandler client, String data) {
-        Player player = client.getPlayer();
-        if (player == null) return;
-
-        String nickname = client.getNickname();
-        String message = data.trim();
-
-        // проверяем не пытается ли рисующий написать слово загаданное
-        if (player.isDrawer() && gameState.getCurrentWord() != null) {
-            String currentWord = gameState.getCurrentWord().trim();
-            if (message.equalsIgnoreCase(currentWord)) {
-                sendToClient(client, Protocol.createChat("СИСТЕМА", "Ошибка: нельзя писать слова, которые нужно угадывать!"));
-                return;
+    // отправить склеенные отрезки: перед разрешенным рисунком или по таймеру
+    // клиент мог уже уйти из комнаты, тогда склеенное просто выбрасывается
+    private static void flushMerged(ClientHandler client, GameRoom room) {
+        StrokePolyline merged = client.getMerged();
+        synchronized (merged) {
+            client.setMergeFlushScheduled(false);
+            if (merged.getCount() > 1 && client.getRoom() == room && !client.isClosed()) {
+                room.handleStroke(client, merged);
             }
+            merged.reset(0, 0);
         }
-
-        // ник(роль):сообщение
-        String role = player.isDrawer() ? "рисует" : "угадывает";
-        String nicknameWithRole = nickname + "(" + role + ")";
-        broadcast(Protocol.createChat(nicknameWithRole, message));
     }
 
-    private void updateScores() {
-        if (gameState.getPlayers().size() == 2) {
-            Player p1 = gameState.getPlayers().get(0);
-            Player p2 = gameState.getPlayers().get(1);
-            String scoreMsg = Protocol.createScore(p1.getNickname(), p1.getScore(),
-                    p2.getNickname(), p2.getScore());
-            broadcast(scoreMsg);
+    // СОХРАНЕНИЕ СТАТИСТИКИ
+    // только обновление индекса в памяти, файл пишет поток хранилища,
+    // поэтому комнаты не ждут диск и друг друга
+    // в сумму идут только очки набранные после прошлого сохранения
+    void saveStatistics(List<Player> players) {
+        for (Player player : players) {
+            int total = stats.record(player.getNickname(), player.takeUnsavedScore());
+            leaderboard.update(player.getNickname(), total);
         }
     }
 
-    private void saveStatistics() {
-        //загружаем существующую статистику
-        List<GameStorage.PlayerStats> allStats = GameStorage.loadStats();
-
-        for (Player player : gameState.getPlayers()) {
-            //для всех игроков в текущем состоянии игры
-            //статистику всех игроков преобразуем в поток для обработки
-            GameStorage.PlayerStats stats = allStats.stream()
-                    //оставляем только ту статистику где ник текущего из потока совп с ником из внешнего цикла
-                    .filter(s -> s.getNickname().equals(player.getNickname()))
-                    .findFirst() //берем первый подходящий
-                    .orElse(null); //если не найдено то null
-
-            if (stats == null) { //если статистики нет
-                // создаем ему статистику по никнейму
-                stats = new GameStorage.PlayerStats(player.getNickname());
-                allStats.add(stats); //добавляем
-            }
-
-            stats.setTotalScore(player.getScore()); //устанавливаем очки
-            stats.setGamesPlayed(stats.getGamesPlayed() + 1); //увеличиваем кол-во сыгранных игр
+    // ЗАПИСЬ РАУНДА: только очередь, на диск пишет поток ReplayWriter
+    void saveReplay(byte[] round) {
+        if (replays != null) {
+            replays.append(round);
         }
-
-        GameStorage.saveStats(allStats); //сохраняем в json
     }
 
-    public synchronized void removeClient(ClientHandler client) {
-        // сохраняем статистику при отключении
-        if (client.getPlayer() != null) {
-            saveStatistics();
+    // РЕЙТИНГ: первые места и место самого игрока
+    private void sendLeaderboard(ClientHandler client, String data) {
+        int count = 10;
+        try {
+            count = Integer.parseInt(data.trim());
+        } catch (NumberFormatException e) {
+            // без числа отдаем первую десятку
         }
-
-        clients.remove(client); //удаляем игрока из списка подключений
-        if (client.getPlayer() != null) {
-            gameState.getPlayers().remove(client.getPlayer()); //удаляем игрока из состояния игры
-            System.out.println("Игрок отключен: " + client.getNickname());
+        String nickname = client.getNickname();
+        StringBuilder message = new StringBuilder(Protocol.LEADERBOARD).append(':')
+                .append(leaderboard.size()).append(':')
+                .append(leaderboard.rank(nickname)).append(':')
+                .append(leaderboard.score(nickname));
+        for (Leaderboard.Entry entry : leaderboard.top(count)) {
+            message.append(Protocol.LEADERBOARD_SEPARATOR)
+                    .append(entry.rank).append(':').append(entry.score).append(':').append(entry.nickname);
         }
+        try {
+            client.send(message.toString());
+        } catch (IOException e) {
+            client.close();
+        }
+    }
+
+    public void removeClient(ClientHandler client) {
+        rooms.leave(client); // игрок подождет переподключения или комната удалит его
     }
-}
\ No newline at end of file
+}
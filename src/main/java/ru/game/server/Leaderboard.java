@@ -0,0 +1,248 @@
+package ru.game.server;
+
+import ru.game.storage.GameStorage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * общий рейтинг игроков по сумме очков
+ * строится один раз из статистики при запуске, дальше обновляется
+ * по одному игроку когда меняются его очки, файл заново не читается
+ *
+ * внутри декартово дерево (treap) по ключу (очки по убыванию, ник),
+ * в каждом узле размер поддерева, поэтому место игрока и первые N
+ * находятся за O(log n) даже при миллионах игроков
+ * узел игрока находится по нику через HashMap
+ */
+class Leaderboard {
+    static final int MAX_TOP = 100;  // больше мест за один запрос не отдаем
+
+    private static class Node {
+        final String nickname;
+        int score;
+        final int priority;
+        Node left;
+        Node right;
+        int size = 1;
+
+        Node(String nickname, int score, int priority) {
+            this.nickname = nickname;
+            this.score = score;
+            this.priority = priority;
+        }
+    }
+
+    // строка рейтинга для ответа клиенту
+    static class Entry {
+        final int rank;
+        final String nickname;
+        final int score;
+
+        Entry(int rank, String nickname, int score) {
+            this.rank = rank;
+            this.nickname = nickname;
+            this.score = score;
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Node> nodes;
+    private final SplittableRandom random = new SplittableRandom();
+    private Node root;
+
+    // ПОСТРОЕНИЕ ИЗ СТАТИСТИКИ
+    // сортируем и собираем сбалансированное дерево за O(n),
+    // приоритеты убывают с глубиной, чтобы это было правильное декартово дерево
+    Leaderboard(List<GameStorage.PlayerStats> stats) {
+        Node[] sorted = new Node[stats.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            GameStorage.PlayerStats player = stats.get(i);
+            sorted[i] = new Node(player.getNickname(), player.getTotalScore(), 0);
+        }
+        Arrays.sort(sorted, (a, b) -> compare(a.score, a.nickname, b));
+        root = build(sorted, 0, sorted.length, 0);
+        nodes = new HashMap<>(Math.max(16, sorted.length * 2));
+        for (Node node : sorted) {
+            nodes.put(node.nickname, node);
+        }
+    }
+
+    private Node build(Node[] sorted, int from, int to, int depth) {
+        if (from >= to) return null;
+        int middle = (from + to) >>> 1;
+        // старшие биты - уровень, младшие случайные
+        Node node = new Node(sorted[middle].nickname, sorted[middle].score,
+                ((31 - Math.min(depth, 31)) << 26) | random.nextInt(1 << 26));
+        sorted[middle] = node;
+        node.left = build(sorted, from, middle, depth + 1);
+        node.right = build(sorted, middle + 1, to, depth + 1);
+        update(node);
+        return node;
+    }
+
+    // ИГРОК НАБРАЛ ОЧКИ: переставляем его узел
+    void update(String nickname, int score) {
+        lock.writeLock().lock();
+        try {
+            Node node = nodes.get(nickname);
+            if (node == null) {
+                node = new Node(nickname, score, random.nextInt() >>> 1);
+                nodes.put(nickname, node);
+            } else {
+                // суммы только растут, опоздавшее обновление с меньшей суммой пропускаем
+                if (score <= node.score) return;
+                root = remove(root, node);
+                node.score = score;
+                node.left = null;
+                node.right = null;
+                node.size = 1;
+            }
+            Node[] parts = split(root, node.score, node.nickname);
+            root = merge(merge(parts[0], node), parts[1]);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * место игрока с 1, 0 если его нет в рейтинге
+     */
+    int rank(String nickname) {
+        lock.readLock().lock();
+        try {
+            Node node = nickname == null ? null : nodes.get(nickname);
+            if (node == null) return 0;
+            int rank = 1;
+            Node current = root;
+            while (current != null) {
+                int cmp = compare(node.score, node.nickname, current);
+                if (cmp == 0) {
+                    return rank + size(current.left);
+                }
+                if (cmp < 0) {
+                    current = current.left;
+                } else {
+                    rank += size(current.left) + 1;
+                    current = current.right;
+                }
+            }
+            return 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int score(String nickname) {
+        lock.readLock().lock();
+        try {
+            Node node = nickname == null ? null : nodes.get(nickname);
+            return node == null ? 0 : node.score;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ПЕРВЫЕ count МЕСТ
+    // обход по порядку со стеком, останавливаемся на count узлах
+    List<Entry> top(int count) {
+        count = Math.max(0, Math.min(count, MAX_TOP));
+        List<Entry> entries = new ArrayList<>(count);
+        lock.readLock().lock();
+        try {
+            Node[] stack = new Node[64];
+            int depth = 0;
+            Node current = root;
+            while ((current != null || depth > 0) && entries.size() < count) {
+                while (current != null) {
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    }
+                    stack[depth++] = current;
+                    current = current.left;
+                }
+                current = stack[--depth];
+                entries.add(new Entry(entries.size() + 1, current.nickname, current.score));
+                current = current.right;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return entries;
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size(root);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // порядок: больше очков выше, при равных по нику
+    private static int compare(int score, String nickname, Node node) {
+        if (score != node.score) {
+            return score > node.score ? -1 : 1;
+        }
+        return nickname.compareTo(node.nickname);
+    }
+
+    // разрезать на (меньше ключа) и (ключ и больше)
+    private Node[] split(Node node, int score, String nickname) {
+        if (node == null) return new Node[2];
+        if (compare(score, nickname, node) > 0) {
+            Node[] parts = split(node.right, score, nickname);
+            node.right = parts[0];
+            update(node);
+            parts[0] = node;
+            return parts;
+        }
+        Node[] parts = split(node.left, score, nickname);
+        node.left = parts[1];
+        update(node);
+        parts[1] = node;
+        return parts;
+    }
+
+    // склеить два дерева, все ключи left меньше ключей right
+    private Node merge(Node left, Node right) {
+        if (left == null) return right;
+        if (right == null) return left;
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    private Node remove(Node current, Node target) {
+        if (current == null) return null;
+        if (current == target) {
+            return merge(current.left, current.right);
+        }
+        if (compare(target.score, target.nickname, current) < 0) {
+            current.left = remove(current.left, target);
+        } else {
+            current.right = remove(current.right, target);
+        }
+        update(current);
+        return current;
+    }
+
+    private static void update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+}
@@ -0,0 +1,137 @@
+package ru.game.server;
+
+import ru.game.protocol.FrameDecoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * соединение клиента в режиме NIO
+ * читает и пишет только поток воркера, которому принадлежит канал
+ * входящие байты режутся на строки и бинарные кадры FrameDecoder,
+ * исходящие сообщения копятся в очереди клиента и пишутся когда сокет готов,
+ * все что накопилось уходит одним gathering write
+ */
+class NioClientHandler extends ClientHandler {
+    private static final int MAX_MESSAGE = 64 * 1024; // защита от бесконечной строки
+
+    private final SocketChannel channel;
+    private final NioServer.Worker worker;
+    private SelectionKey key;
+    private final FrameDecoder decoder;              // незаконченное сообщение живет тут
+    private final FrameDecoder.Handler handler;
+    private static final int MAX_GATHER = 64;        // буферов в одном write
+
+    private final ByteBuffer[] batch;                // забранные из очереди, но еще не записанные
+    private int batchStart;
+    private int batchEnd;
+    private final AtomicBoolean flushScheduled;      // запись уже запланирована
+    private final AtomicBoolean closed;
+
+    NioClientHandler(SocketChannel channel, NioServer.Worker worker, GameServer server) {
+        super(server);
+        this.channel = channel;
+        this.worker = worker;
+        this.decoder = new FrameDecoder(MAX_MESSAGE);
+        this.handler = messageHandler();
+        this.batch = new ByteBuffer[MAX_GATHER];
+        this.flushScheduled = new AtomicBoolean();
+        this.closed = new AtomicBoolean();
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    // ЧТЕНИЕ
+    // читаем что пришло в общий буфер воркера
+    // каждую полную строку или кадр отдаем серверу,
+    // незаконченный хвост декодер откладывает до следующего чтения
+    void onReadable(ByteBuffer buffer) {
+        buffer.clear();
+        int read;
+        try {
+            read = channel.read(buffer);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (read < 0) { // клиент закрыл соединение
+            close();
+            return;
+        }
+
+        try {
+            if (!decoder.feed(buffer.array(), 0, read, handler)) {
+                System.err.println("Слишком длинное сообщение от " + getNickname() + ", отключаем");
+                close();
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Ошибка обработки сообщения от " + getNickname() + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // можно вызывать из любого потока: просим воркер записать,
+    // сам сокет пишет только воркер
+    @Override
+    protected void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            worker.execute(this::flush);
+        }
+    }
+
+    @Override
+    protected boolean isClosed() {
+        return closed.get();
+    }
+
+    // ЗАПИСЬ
+    // забираем из очереди до MAX_GATHER сообщений и пишем их одним вызовом,
+    // пока сокет принимает данные; если сокет заполнен ждем OP_WRITE
+    void flush() {
+        flushScheduled.set(false);
+        if (!key.isValid()) return;
+        try {
+            while (true) {
+                if (batchStart == batchEnd) {
+                    batchStart = 0;
+                    batchEnd = outbound.drainTo(batch);
+                    if (batchEnd == 0) break;
+                }
+                long written = channel.write(batch, batchStart, batchEnd - batchStart);
+                outbound.written(written);
+                while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+                    batch[batchStart++] = null;
+                }
+                if (batchStart < batchEnd) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    // БЕЗОПАСНОЕ ЗАКРЫТИЕ
+    // канал закрывает воркер, клиента удаляем из комнаты один раз
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        worker.execute(() -> {
+            try {
+                key.cancel();
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Ошибка закрытия соединения: " + e.getMessage());
+            }
+        });
+        System.out.println("Клиент отключен: " + (getNickname() != null ? getNickname() : "unknown"));
+        server.removeClient(this);
+    }
+}
@@ -0,0 +1,153 @@
+package ru.game.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * неблокирующий транспорт сервера на java.nio
+ * один поток принимает подключения,
+ * несколько потоков ввода-вывода (по числу ядер) обслуживают
+ * все соединения через свой Selector: режут байты на строки,
+ * разбирают их через Protocol и отдают серверу
+ * отдельный поток на каждого клиента не нужен
+ */
+public class NioServer {
+    private final GameServer server;
+    private final int port;
+    private final Worker[] workers;                  // потоки ввода-вывода
+    private int nextWorker;                          // по кругу раздаем соединения
+
+    public NioServer(GameServer server, int port, int ioThreads) {
+        this.server = server;
+        this.port = port;
+        this.workers = new Worker[ioThreads];
+    }
+
+    // ЗАПУСК
+    // стартуем потоки ввода-вывода
+    // в текущем потоке принимаем подключения и раздаем их потокам по кругу
+    public void run() throws IOException {
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(server, i);
+            workers[i].start();
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port), GameServer.BACKLOG);
+            System.out.println("Сервер запущен на порту " + port + " (NIO, потоков: " + workers.length + ")");
+            System.out.println("Ожидание игроков...");
+            System.out.println("__________________________________");
+
+            while (true) {
+                SocketChannel channel = serverChannel.accept(); // ждет пока подключится клиент
+                try {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                } catch (IOException e) {
+                    System.err.println("Ошибка настройки соединения: " + e.getMessage());
+                    channel.close();
+                    continue;
+                }
+                System.out.println("Новое подключение: " + channel.socket().getInetAddress());
+
+                Worker worker = workers[nextWorker];
+                nextWorker = (nextWorker + 1) % workers.length;
+                worker.register(channel);
+            }
+        }
+    }
+
+    // КЛАСС Worker
+    /**
+     * поток ввода-вывода
+     * ждет готовности своих каналов в Selector
+     * читает данные в общий для потока буфер и отдает их соединениям
+     * выполняет задачи других потоков: регистрацию и запись
+     */
+    static class Worker extends Thread {
+        private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+        private final GameServer server;
+        private final Selector selector;
+        private final Queue<Runnable> tasks;          // задачи от других потоков
+        private final ByteBuffer readBuffer;          // один буфер на все соединения потока
+
+        Worker(GameServer server, int index) throws IOException {
+            super("nio-io-" + index);
+            this.server = server;
+            this.selector = Selector.open();
+            this.tasks = new ConcurrentLinkedQueue<>();
+            this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            setDaemon(true);
+        }
+
+        // новое соединение регистрируется в потоке воркера
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    NioClientHandler handler = new NioClientHandler(channel, this, server);
+                    handler.setKey(channel.register(selector, SelectionKey.OP_READ, handler));
+                } catch (IOException e) {
+                    System.err.println("Ошибка регистрации соединения: " + e.getMessage());
+                }
+            });
+        }
+
+        // выполнить задачу в потоке воркера
+        void execute(Runnable task) {
+            tasks.offer(task);
+            if (Thread.currentThread() != this) {
+                selector.wakeup(); // будим select чтобы задача выполнилась сразу
+            }
+        }
+
+        // ГЛАВНЫЙ ЦИКЛ ВОРКЕРА
+        // выполняем задачи, ждем готовые каналы, читаем и пишем
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    runTasks();
+                    selector.select();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioClientHandler handler = (NioClientHandler) key.attachment();
+
+                        if (key.isValid() && key.isReadable()) {
+                            handler.onReadable(readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            handler.flush();
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("Ошибка потока " + getName() + ": " + e.getMessage());
+                }
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Ошибка задачи в " + getName() + ": " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package ru.game.server;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ограниченная очередь исходящих сообщений одного клиента
+ * кладут любые потоки (комнаты, таймер, чужие клиенты), забирает
+ * только транспорт этого клиента и пишет пачкой за один вызов
+ *
+ * размер считается в байтах; если клиент не успевает читать,
+ * срабатывает политика медленного клиента: рисунок выбрасывается
+ * или клиент отключается, отправитель никогда не ждет чужой сокет
+ */
+class OutboundQueue {
+    // что делать с клиентом, у которого очередь переполнена
+    enum Policy {
+        DROP,        // выбрасывать рисунок, остальные сообщения держать до жесткого предела
+        DISCONNECT;  // сразу отключать
+
+        static Policy fromProperty(String value) {
+            return "disconnect".equalsIgnoreCase(value) ? DISCONNECT : DROP;
+        }
+    }
+
+    // результат постановки в очередь
+    enum Offer {
+        QUEUED,      // лежит в очереди, надо запланировать запись
+        DROPPED,     // рисунок выброшен, клиент отстает
+        OVERFLOW     // клиента пора отключать
+    }
+
+    private static final int HARD_LIMIT_FACTOR = 4; // во сколько раз больше лимита держим служебные сообщения
+
+    private final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong(); // поставлено минус записано
+    private final long limit;
+    private final Policy policy;
+    private volatile boolean lagging;                        // уже выбрасывали рисунок
+
+    OutboundQueue(long limit, Policy policy) {
+        this.limit = limit;
+        this.policy = policy;
+    }
+
+    // ПОСТАВИТЬ В ОЧЕРЕДЬ
+    // drawing = отрезки и штрихи, их можно потерять без поломки игры
+    Offer offer(ByteBuffer data, boolean drawing) {
+        long queued = queuedBytes.get();
+        if (queued + data.remaining() > limit) {
+            if (policy == Policy.DISCONNECT) {
+                return Offer.OVERFLOW;
+            }
+            if (drawing) {
+                lagging = true;
+                return Offer.DROPPED;
+            }
+            if (queued + data.remaining() > limit * HARD_LIMIT_FACTOR) {
+                return Offer.OVERFLOW;
+            }
+        }
+        queuedBytes.addAndGet(data.remaining());
+        queue.offer(data);
+        return Offer.QUEUED;
+    }
+
+    // ЗАБРАТЬ ПАЧКУ НА ЗАПИСЬ
+    // до batch.length сообщений, вернуть сколько забрали
+    int drainTo(ByteBuffer[] batch) {
+        int count = 0;
+        ByteBuffer next;
+        while (count < batch.length && (next = queue.poll()) != null) {
+            batch[count++] = next;
+        }
+        return count;
+    }
+
+    // транспорт записал bytes байт в сокет
+    void written(long bytes) {
+        if (queuedBytes.addAndGet(-bytes) == 0) {
+            lagging = false;
+        }
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    // выбрасывали ли рисунок с тех пор как очередь последний раз опустела
+    boolean isLagging() {
+        return lagging;
+    }
+}
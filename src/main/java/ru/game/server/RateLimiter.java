@@ -0,0 +1,97 @@
+package ru.game.server;
+
+import ru.game.protocol.Protocol;
+
+/**
+ * ограничение частоты сообщений одного соединения
+ * на каждый вид команд свое ведро жетонов (token bucket): жетоны
+ * копятся со скоростью rate в секунду, но не больше burst,
+ * сообщение забирает один жетон, без жетона оно не обрабатывается
+ *
+ * отказы тоже считаются ведром STRIKE: кто превышает лимит дольше,
+ * чем оно позволяет, отключается
+ *
+ * жетоны хранятся в миллиардных долях, время в наносекундах,
+ * все в массивах long без объектов на сообщение
+ * вызывает только поток чтения этого клиента, поэтому без блокировок
+ */
+class RateLimiter {
+    private static final long UNIT = 1_000_000_000L;  // один жетон
+    private static final long MAX_IDLE_NANOS = 3600L * UNIT; // дольше простой все равно полное ведро
+
+    enum Kind {
+        DRAW(250, 500),   // DRAW, STROKE и кадры рисунка; клиент шлет пачками ~60 в секунду
+        GUESS(3, 6),
+        CHAT(2, 5),
+        CLEAR(2, 4),
+        UNDO(10, 20),     // UNDO и REDO, можно быстро нажимать Ctrl+Z
+        OTHER(2, 5),      // JOIN, RESUME, LEADERBOARD
+        STRIKE(20, 200);  // отказы: больше 200 подряд сверх 20 в секунду - отключаем
+
+        final long rate;   // жетонов в секунду
+        final long burst;  // жетонов в запасе
+
+        Kind(long rate, long burst) {
+            this.rate = rate;
+            this.burst = burst;
+        }
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private final long[] tokens = new long[KINDS.length];
+    private final long[] updated = new long[KINDS.length];
+
+    RateLimiter() {
+        long now = System.nanoTime();
+        for (Kind kind : KINDS) {
+            tokens[kind.ordinal()] = kind.burst * UNIT;
+            updated[kind.ordinal()] = now;
+        }
+    }
+
+    // вид ведра по команде, LEAVE не ограничиваем
+    static Kind kindOf(String command) {
+        switch (command) {
+            case Protocol.DRAW:
+            case Protocol.STROKE:
+                return Kind.DRAW;
+            case Protocol.GUESS:
+                return Kind.GUESS;
+            case Protocol.CHAT:
+                return Kind.CHAT;
+            case Protocol.CLEAR:
+                return Kind.CLEAR;
+            case Protocol.UNDO:
+            case Protocol.REDO:
+                return Kind.UNDO;
+            case Protocol.LEAVE:
+                return null;
+            default:
+                return Kind.OTHER;
+        }
+    }
+
+    /**
+     * забрать жетон, false если сообщение сверх лимита
+     */
+    boolean tryAcquire(Kind kind, long now) {
+        int i = kind.ordinal();
+        long elapsed = Math.min(now - updated[i], MAX_IDLE_NANOS);
+        updated[i] = now;
+        long available = Math.min(tokens[i] + Math.max(0, elapsed) * kind.rate, kind.burst * UNIT);
+        if (available < UNIT) {
+            tokens[i] = available;
+            return false;
+        }
+        tokens[i] = available - UNIT;
+        return true;
+    }
+
+    /**
+     * записать отказ, true если отказов слишком много и клиента пора отключить
+     */
+    boolean strike(long now) {
+        return !tryAcquire(Kind.STRIKE, now);
+    }
+}
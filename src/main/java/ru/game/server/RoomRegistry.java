@@ -0,0 +1,122 @@
+package ru.game.server;
+
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * реестр игровых комнат
+ * хранит все комнаты сервера и очередь комнат со свободным местом
+ * новый игрок попадает в первую свободную комнату
+ * если свободных нет создается новая комната
+ * блокировка реестра держится только на время выбора комнаты,
+ * сама игра идет под блокировкой комнаты
+ * еще хранит токены сессий, чтобы переподключившийся игрок
+ * нашел свою комнату
+ */
+public class RoomRegistry {
+    private final GameServer server;
+    private final Map<Long, GameRoom> rooms;          // все открытые комнаты по номеру
+    private final ArrayDeque<GameRoom> freeRooms;     // комнаты в которых есть место
+    private final AtomicLong nextId;                  // номер следующей комнаты
+    private final Map<String, GameRoom> sessions;     // токен сессии -> комната игрока
+    private final SecureRandom random;                // токены нельзя угадать
+
+    public RoomRegistry(GameServer server) {
+        this.server = server;
+        this.rooms = new ConcurrentHashMap<>();
+        this.freeRooms = new ArrayDeque<>();
+        this.nextId = new AtomicLong(1);
+        this.sessions = new ConcurrentHashMap<>();
+        this.random = new SecureRandom();
+    }
+
+    // ПОДБОР КОМНАТЫ
+    // бронируем место в первой свободной комнате
+    // заполненные и закрытые комнаты выкидываем из очереди
+    // если свободных нет создаем новую и ставим в очередь
+    public GameRoom join(ClientHandler client, String nickname) {
+        GameRoom room;
+        synchronized (this) {
+            while ((room = freeRooms.peek()) != null && !room.reserveSeat()) {
+                freeRooms.poll();
+            }
+            if (room == null) {
+                room = new GameRoom(nextId.getAndIncrement(), server, this);
+                room.reserveSeat();
+                rooms.put(room.getId(), room);
+                freeRooms.offer(room);
+            }
+            if (!room.hasFreeSeat()) {
+                freeRooms.poll(); // комната заполнилась, она первая в очереди
+            }
+        }
+
+        String token = newToken();
+        sessions.put(token, room);
+        room.join(client, nickname, token); // вход уже под блокировкой комнаты
+        return room;
+    }
+
+    // ПЕРЕПОДКЛЮЧЕНИЕ ПО ТОКЕНУ
+    // false если сессии уже нет
+    public boolean resume(ClientHandler client, String token) {
+        GameRoom room = sessions.get(token);
+        return room != null && room.resume(client, token);
+    }
+
+    // ОБРЫВ СОЕДИНЕНИЯ
+    // игрок посреди игры ждет переподключения, остальные выходят сразу
+    public void leave(ClientHandler client) {
+        GameRoom room = client.getRoom();
+        if (room == null || room.park(client)) return;
+        leaveNow(client);
+    }
+
+    // ВЫХОД ИЗ КОМНАТЫ без ожидания (игрок сам ушел)
+    public void leaveNow(ClientHandler client) {
+        GameRoom room = client.getRoom();
+        if (room == null) return;
+        String token = client.getSessionToken();
+        released(room, token, room.removeClient(client));
+    }
+
+    // игрок удален из комнаты
+    // пустую комнату удаляем, комнату с местом возвращаем в очередь
+    // повтор в очереди не страшен: заполненную комнату выкинет join
+    void released(GameRoom room, String token, boolean closed) {
+        if (token != null) {
+            sessions.remove(token, room);
+        }
+        if (closed) {
+            rooms.remove(room.getId());
+        } else {
+            synchronized (this) {
+                if (room.hasFreeSeat()) {
+                    freeRooms.offer(room);
+                }
+            }
+        }
+    }
+
+    // сессия закрытой комнаты больше не нужна
+    void forget(String token, GameRoom room) {
+        sessions.remove(token, room);
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder sb = new StringBuilder(32);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    public int getRoomCount() {
+        return rooms.size();
+    }
+}
@@ -0,0 +1,198 @@
+package ru.game.server;
+
+import ru.game.model.Player;
+import ru.game.protocol.BinaryProtocol;
+import ru.game.protocol.StrokePolyline;
+import ru.game.protocol.StrokeSegment;
+import ru.game.storage.ReplayWriter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * запись текущего раунда комнаты для ReplayWriter (формат там же)
+ * события сразу кодируются в один растущий массив, без объектов на событие:
+ * кусок штриха это тип, время и те же байты что в кадре POLYLINE,
+ * поэтому handleDraw платит только блокировку без соперников и ~20 байт копии
+ *
+ * рисование приходит без блокировки комнаты, поэтому у записи своя
+ * если раунд вырос больше MAX_ROUND_BYTES, штрихи дальше не пишутся,
+ * чат, догадки и итог пишутся всегда
+ */
+class RoundRecorder {
+    static final int MAX_ROUND_BYTES = ReplayWriter.MAX_ROUND - 64 * 1024; // место для чата и итога
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private byte[] buffer = new byte[4096];
+    private int length;
+    private boolean active;                  // раунд идет и пишется
+    private long lastTime;                   // время прошлого события
+    private String[] players = new String[0];
+    private final byte[] scratch = new byte[BinaryProtocol.MAX_POLYLINE_FRAME];
+    private final StrokePolyline segmentPolyline = new StrokePolyline();
+
+    // НАЧАЛО РАУНДА: шапка с комнатой, словом и игроками
+    // незаконченная запись прошлого раунда выбрасывается
+    void begin(long roomId, String word, List<Player> players) {
+        lock.lock();
+        try {
+            length = 0;
+            if (buffer.length > 64 * 1024) {
+                buffer = new byte[4096]; // большой буфер прошлого раунда не держим
+            }
+            this.players = new String[players.size()];
+            int drawer = 0;
+            for (int i = 0; i < players.size(); i++) {
+                this.players[i] = players.get(i).getNickname();
+                if (players.get(i).isDrawer()) drawer = i;
+            }
+            lastTime = System.currentTimeMillis();
+            writeLong(lastTime);
+            writeVarint((int) roomId);
+            writeString(word == null ? "" : word);
+            writeVarint(this.players.length);
+            for (String nickname : this.players) {
+                writeString(nickname);
+            }
+            writeVarint(drawer);
+            active = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // КУСОК ШТРИХА
+    void stroke(StrokePolyline polyline) {
+        lock.lock();
+        try {
+            if (!active || length > MAX_ROUND_BYTES) return;
+            int dataLength = BinaryProtocol.writePolylineData(polyline, scratch, 0);
+            event(ReplayWriter.EVENT_STROKE, 5 + dataLength);
+            length = BinaryProtocol.writeVarint(buffer, length, dataLength);
+            System.arraycopy(scratch, 0, buffer, length, dataLength);
+            length += dataLength;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // отдельный отрезок DRAW пишем как кусок из двух точек
+    void stroke(StrokeSegment segment) {
+        lock.lock();
+        try {
+            segmentPolyline.reset(0, segment.getColor());
+            segmentPolyline.add(segment.getX1(), segment.getY1());
+            segmentPolyline.add(segment.getX2(), segment.getY2());
+            stroke(segmentPolyline);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void clear() {
+        lock.lock();
+        try {
+            if (!active) return;
+            event(ReplayWriter.EVENT_CLEAR, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void undo(int strokeId) {
+        lock.lock();
+        try {
+            if (!active) return;
+            event(ReplayWriter.EVENT_UNDO, 5);
+            writeVarint(strokeId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void guess(String nickname, String text) {
+        text(ReplayWriter.EVENT_GUESS, nickname, text);
+    }
+
+    void chat(String nickname, String text) {
+        text(ReplayWriter.EVENT_CHAT, nickname, text);
+    }
+
+    /**
+     * конец раунда: дописать итог и отдать запись, null если раунд не писался
+     * winner null если никто не угадал
+     */
+    byte[] finish(int outcome, String winner) {
+        lock.lock();
+        try {
+            if (!active) return null;
+            active = false;
+            event(ReplayWriter.EVENT_END, 6);
+            buffer[length++] = (byte) outcome;
+            writeVarint(indexOf(winner) + 1);
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void text(int type, String nickname, String text) {
+        lock.lock();
+        try {
+            if (!active) return;
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            event(type, 10 + bytes.length);
+            writeVarint(indexOf(nickname) + 1);
+            writeBytes(bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // тип и время события, место под данные длиной до extra
+    private void event(int type, int extra) {
+        long now = System.currentTimeMillis();
+        ensureCapacity(1 + 5 + extra);
+        buffer[length++] = (byte) type;
+        length = BinaryProtocol.writeVarint(buffer, length, (int) Math.max(0, now - lastTime));
+        lastTime = now;
+    }
+
+    private int indexOf(String nickname) {
+        for (int i = 0; i < players.length; i++) {
+            if (players[i].equals(nickname)) return i;
+        }
+        return -1;
+    }
+
+    private void writeLong(long value) {
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[length++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void writeVarint(int value) {
+        ensureCapacity(5);
+        length = BinaryProtocol.writeVarint(buffer, length, value);
+    }
+
+    private void writeString(String value) {
+        writeBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeBytes(byte[] bytes) {
+        writeVarint(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package ru.game.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * счетчики ограничения сообщений для всего сервера
+ * LongAdder: потоки чтения всех клиентов увеличивают их одновременно
+ * и не спорят за одну ячейку памяти
+ * раз в -Dgame.metricsInterval секунд сервер печатает их в лог
+ */
+class ServerMetrics {
+    private static final RateLimiter.Kind[] KINDS = RateLimiter.Kind.values();
+
+    private final LongAdder[] accepted = adders();  // принято по видам команд
+    private final LongAdder[] limited = adders();   // отказано по видам команд
+    private final LongAdder merged = new LongAdder();       // отрезки сверх лимита склеены в штрих
+    private final LongAdder dropped = new LongAdder();      // рисунок сверх лимита выброшен
+    private final LongAdder disconnected = new LongAdder(); // отключено за флуд
+    private long lastTotal = -1;                            // только поток печати
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[KINDS.length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    void accepted(RateLimiter.Kind kind) {
+        accepted[kind.ordinal()].increment();
+    }
+
+    void limited(RateLimiter.Kind kind) {
+        limited[kind.ordinal()].increment();
+    }
+
+    void merged() {
+        merged.increment();
+    }
+
+    void dropped() {
+        dropped.increment();
+    }
+
+    void disconnected() {
+        disconnected.increment();
+    }
+
+    /**
+     * строка для лога, null если с прошлого раза ничего не изменилось
+     */
+    String report() {
+        StringBuilder sb = new StringBuilder("Сообщения (принято/сверх лимита):");
+        long total = 0;
+        for (RateLimiter.Kind kind : KINDS) {
+            if (kind == RateLimiter.Kind.STRIKE) continue;
+            long ok = accepted[kind.ordinal()].sum();
+            long over = limited[kind.ordinal()].sum();
+            total += ok + over;
+            sb.append(' ').append(kind.name()).append('=').append(ok).append('/').append(over);
+        }
+        sb.append(", склеено ").append(merged.sum())
+                .append(", выброшено ").append(dropped.sum())
+                .append(", отключено ").append(disconnected.sum());
+        if (total == lastTotal) return null;
+        lastTotal = total;
+        return sb.toString();
+    }
+}
@@ -0,0 +1,126 @@
+package ru.game.server;
+
+import ru.game.protocol.FrameDecoder;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * обработчик подключения клиента в блокирующем режиме
+ * КАЖДЫЙ КЛИЕНТ В ОТДЕЛЬНОМ ПОТОКЕ:
+ * имеет свое соединение Socket
+ * читает байты от клиента и режет их на строки и кадры FrameDecoder
+ * отправляет ответы отдельный поток-писатель: забирает очередь клиента
+ * и пишет все накопленное одним flush
+ * работает параллельно с другими клиентами
+ */
+public class SocketClientHandler extends ClientHandler implements Runnable {
+    private Socket socket;        // Соединение с клиентом
+    private static final int MAX_MESSAGE = 64 * 1024;  // защита от бесконечной строки
+
+    private InputStream in;       // ОТ клиента
+    private OutputStream out;     //  КЛИЕНТУ
+    private final ThreadFactory threads;  // из нее же берем поток-писатель
+    private volatile Thread writer;
+
+    // КОНСТРУКТОР SocketClientHandler
+    public SocketClientHandler(Socket socket, GameServer server, ThreadFactory threads) {
+        super(server);
+        this.socket = socket;
+        this.threads = threads;
+    }
+
+    //  ГЛАВНЫЙ ЦИКЛ КЛИЕНТА
+    // МЕТОД ВЫПОЛНЯЕТСЯ ПРИ ЗАПУСКЕ ПОТОКА:
+    // устанавливает потоки ввода и вывода
+    // запускает бесконечный цикл чтения сообщений
+    // разбираем сообщения через Protocol
+    //передаем серверу на обработку
+    @Override
+    public void run() {
+        try {
+            in = socket.getInputStream();
+            out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+            writer = threads.newThread(this::writeLoop);
+            writer.start();
+
+            FrameDecoder decoder = new FrameDecoder(MAX_MESSAGE);
+            FrameDecoder.Handler handler = messageHandler();
+            byte[] buffer = new byte[8192];
+            int read;
+            // пока клиент не отключится
+            while ((read = in.read(buffer)) != -1) {
+                if (!decoder.feed(buffer, 0, read, handler)) {
+                    System.err.println("Слишком длинное сообщение от " + getNickname() + ", отключаем");
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Клиент отключен: " + (getNickname() != null ? getNickname() : "unknown"));
+        } finally { // В ЛЮБОМ СЛУЧАЕ
+            try {
+                server.removeClient(this);  // удаляем клиента из списка
+                socket.close();             // закрываем соединение
+            } catch (IOException e) {
+                System.err.println("Ошибка закрытия соединения: " + e.getMessage());
+            }
+            LockSupport.unpark(writer); // писатель увидит закрытый сокет и выйдет
+        }
+    }
+
+    // ЦИКЛ ПОТОКА-ПИСАТЕЛЯ
+    // спит пока очередь пуста, потом забирает все что накопилось
+    // в буфер потока и отправляет одним flush
+    private void writeLoop() {
+        ByteBuffer[] batch = new ByteBuffer[64];
+        try {
+            while (!socket.isClosed()) {
+                if (outbound.isEmpty()) {
+                    LockSupport.park(this); // разбудит scheduleFlush или close
+                    continue;
+                }
+                int count;
+                while ((count = outbound.drainTo(batch)) > 0) {
+                    long bytes = 0;
+                    for (int i = 0; i < count; i++) {
+                        ByteBuffer data = batch[i];
+                        bytes += data.remaining();
+                        out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+                        batch[i] = null;
+                    }
+                    outbound.written(bytes);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            close(); // поток чтения получит ошибку и удалит клиента
+        }
+    }
+
+    @Override
+    protected void scheduleFlush() {
+        LockSupport.unpark(writer);
+    }
+
+    @Override
+    protected boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    // БЕЗОПАСНОЕ ЗАКРЫТИЕ
+    @Override
+    public void close() {
+        try {
+            // проверяем что сокет существует и еще не закрыт
+            if (socket != null && !socket.isClosed()) {
+                socket.close(); //закрваем
+            }
+            LockSupport.unpark(writer);
+        } catch (IOException e) {
+            System.err.println("Ошибка закрытия соединения: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package ru.game.server;
+
+import ru.game.protocol.BinaryProtocol;
+import ru.game.protocol.CanvasSnapshot;
+import ru.game.protocol.Protocol;
+import ru.game.protocol.StrokePolyline;
+import ru.game.protocol.StrokeSegment;
+
+import javax.imageio.ImageIO;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * рисунок текущего раунда комнаты
+ * каждый кусок штриха хранится в том же компактном виде что и кадр POLYLINE,
+ * очищается по CLEAR и в начале раунда
+ *
+ * чтобы снимок для вошедшего игрока не рос бесконечно, когда записи
+ * занимают больше MAX_LOG_BYTES, сервер сам рисует их в картинку
+ * и начинает записи заново; картинка сжимается в PNG только для снимка
+ * готовый снимок кэшируется до следующего изменения
+ *
+ * последние Protocol.MAX_UNDO штрихов в картинку не рисуются, их можно
+ * отменить, более старые нельзя, даже если картинка еще не нарисована:
+ * записи штриха вырезаются и лежат в стопке отмененных,
+ * REDO возвращает их в конец; любой новый кусок стопку очищает,
+ * как и у клиента, поэтому отмененных не больше MAX_UNDO
+ */
+class StrokeLog {
+    static final int MAX_LOG_BYTES = 256 * 1024;    // записи до того как рисовать их в картинку
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private byte[] records = new byte[4096];        // [длина varint][данные POLYLINE]...
+    private int length;
+    private BufferedImage image;                    // уже нарисованная часть, null если нет
+    private byte[] snapshot;                        // кэш кадра SNAPSHOT
+    private final byte[] scratch = new byte[BinaryProtocol.MAX_POLYLINE_FRAME];
+    private final StrokePolyline segmentPolyline = new StrokePolyline();
+    private int compactAt = MAX_LOG_BYTES;          // длина записей для следующей попытки compact
+    // отмененные штрихи, последний отмененный первый
+    private final ArrayDeque<UndoneStroke> undone = new ArrayDeque<>();
+
+    private static class UndoneStroke {
+        final int strokeId;
+        final byte[] records;  // записи штриха в том же виде что в records
+
+        UndoneStroke(int strokeId, byte[] records) {
+            this.strokeId = strokeId;
+            this.records = records;
+        }
+    }
+
+    // ДОБАВИТЬ КУСОК ШТРИХА
+    void append(StrokePolyline polyline) {
+        lock.lock();
+        try {
+            int dataLength = BinaryProtocol.writePolylineData(polyline, scratch, 0);
+            ensureCapacity(5 + dataLength);
+            length = BinaryProtocol.writeVarint(records, length, dataLength);
+            System.arraycopy(scratch, 0, records, length, dataLength);
+            length += dataLength;
+            snapshot = null;
+            undone.clear(); // рисуют дальше: вернуть отмененное уже нельзя
+
+            if (length > compactAt) {
+                compact();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // отдельный отрезок DRAW храним как кусок из двух точек
+    void append(StrokeSegment segment) {
+        lock.lock();
+        try {
+            segmentPolyline.reset(0, segment.getColor());
+            segmentPolyline.add(segment.getX1(), segment.getY1());
+            segmentPolyline.add(segment.getX2(), segment.getY2());
+            append(segmentPolyline);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ОЧИСТКА: новый раунд или CLEAR
+    void clear() {
+        lock.lock();
+        try {
+            length = 0;
+            image = null;
+            snapshot = null;
+            undone.clear();
+            compactAt = MAX_LOG_BYTES;
+            if (records.length > 4096) {
+                records = new byte[4096]; // большой буфер прошлого раунда не держим
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ОТМЕНА ШТРИХА
+    // записи штриха вырезаются из records, false если штриха нет среди
+    // последних MAX_UNDO (номер чужой, штрих старый или уже в картинке)
+    // граница та же что у compact, поэтому отмена не зависит от того, успел ли он сработать
+    boolean undo(int strokeId) {
+        lock.lock();
+        try {
+            int horizon = undoHorizon();
+            int pos = 0;
+            while (pos < horizon) {
+                if (strokeIdAt(pos) == strokeId) return false; // штрих начат раньше границы
+                long recordLength = BinaryProtocol.readVarint(records, pos, length);
+                pos += BinaryProtocol.varintSize(recordLength) + (int) recordLength;
+            }
+            int kept = horizon;
+            int cut = 0;
+            byte[] removed = null;
+            while (pos < length) {
+                int start = pos;
+                long recordLength = BinaryProtocol.readVarint(records, pos, length);
+                pos += BinaryProtocol.varintSize(recordLength) + (int) recordLength;
+                if (strokeIdAt(start) == strokeId) {
+                    if (removed == null) removed = new byte[pos - start];
+                    if (cut + pos - start > removed.length) {
+                        removed = Arrays.copyOf(removed, Math.max(removed.length * 2, cut + pos - start));
+                    }
+                    System.arraycopy(records, start, removed, cut, pos - start);
+                    cut += pos - start;
+                } else {
+                    System.arraycopy(records, start, records, kept, pos - start);
+                    kept += pos - start;
+                }
+            }
+            if (removed == null) return false;
+            length = kept;
+            snapshot = null;
+            undone.push(new UndoneStroke(strokeId, Arrays.copyOf(removed, cut)));
+            if (undone.size() > Protocol.MAX_UNDO) {
+                undone.removeLast();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ВОЗВРАТ ОТМЕНЕННОГО
+    // только последний отмененный штрих, записи возвращаются в конец
+    // вернуть записи штриха ([длина varint][данные POLYLINE]...) чтобы разослать, null если нечего
+    byte[] redo(int strokeId) {
+        lock.lock();
+        try {
+            UndoneStroke stroke = undone.peek();
+            if (stroke == null || stroke.strokeId != strokeId) return null;
+            undone.pop();
+            ensureCapacity(stroke.records.length);
+            System.arraycopy(stroke.records, 0, records, length, stroke.records.length);
+            length += stroke.records.length;
+            snapshot = null;
+            return stroke.records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // номер штриха записи с позиции pos: [длина][цвет][штрих varint]...
+    private int strokeIdAt(int pos) {
+        long recordLength = BinaryProtocol.readVarint(records, pos, length);
+        int data = pos + BinaryProtocol.varintSize(recordLength);
+        return (int) BinaryProtocol.readVarint(records, data + 1, data + (int) recordLength);
+    }
+
+    // копия записей без картинки: [длина varint][данные POLYLINE]...
+    // из них собирают рисунок текстовым клиентам, которые не понимают снимок
+    byte[] records() {
+        lock.lock();
+        try {
+            return Arrays.copyOf(records, length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return length == 0 && image == null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // СНИМОК РИСУНКА
+    // кадр SNAPSHOT, сжимается только если рисунок изменился
+    byte[] snapshot() {
+        lock.lock();
+        try {
+            if (snapshot == null) {
+                snapshot = CanvasSnapshot.encode(encodeImage(), records, length);
+            }
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > records.length) {
+            records = Arrays.copyOf(records, Math.max(records.length * 2, length + extra));
+        }
+    }
+
+    private byte[] encodeImage() {
+        if (image == null) return null;
+        try {
+            ByteArrayOutputStream png = new ByteArrayOutputStream(64 * 1024);
+            ImageIO.write(image, "png", png);
+            return png.toByteArray();
+        } catch (IOException e) {
+            System.err.println("Ошибка сжатия рисунка: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // РИСУЕМ ЗАПИСИ В КАРТИНКУ
+    // так же как клиент: сглаживание и линия LINE_WIDTH
+    // раз в MAX_LOG_BYTES записей, то есть в очень длинном раунде
+    // последние MAX_UNDO штрихов остаются записями, их еще можно отменить
+    private void compact() {
+        int end = undoHorizon();
+        // если почти все записи в последних штрихах, ждем пока их станет больше
+        compactAt = Math.max(MAX_LOG_BYTES, length - end + MAX_LOG_BYTES / 2);
+        if (end == 0) return;
+        if (image == null) {
+            image = new BufferedImage(Protocol.CANVAS_WIDTH, Protocol.CANVAS_HEIGHT, BufferedImage.TYPE_INT_RGB);
+            Graphics2D background = image.createGraphics();
+            background.setColor(Color.WHITE);
+            background.fillRect(0, 0, Protocol.CANVAS_WIDTH, Protocol.CANVAS_HEIGHT);
+            background.dispose();
+        }
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setStroke(new BasicStroke(Protocol.LINE_WIDTH));
+
+            StrokePolyline polyline = new StrokePolyline();
+            int[] xs = new int[StrokePolyline.MAX_POINTS];
+            int[] ys = new int[StrokePolyline.MAX_POINTS];
+            int pos = 0;
+            while (pos < end) {
+                long recordLength = BinaryProtocol.readVarint(records, pos, length);
+                pos += BinaryProtocol.varintSize(recordLength);
+                if (BinaryProtocol.decodePolyline(records, pos, (int) recordLength, polyline)) {
+                    for (int i = 0; i < polyline.getCount(); i++) {
+                        xs[i] = polyline.getX(i);
+                        ys[i] = polyline.getY(i);
+                    }
+                    g.setColor(new Color(Protocol.COLOR_RGB[polyline.getColor() < Protocol.COLOR_RGB.length
+                            ? polyline.getColor() : 0]));
+                    g.drawPolyline(xs, ys, polyline.getCount());
+                }
+                pos += (int) recordLength;
+            }
+            System.arraycopy(records, end, records, 0, length - end);
+            length -= end;
+            snapshot = null;
+        } finally {
+            g.dispose();
+        }
+    }
+
+    // начало записей последних MAX_UNDO штрихов, 0 если штрихов меньше
+    // штрих - подряд идущие записи с одним номером
+    private int undoHorizon() {
+        int[] starts = new int[Protocol.MAX_UNDO]; // начала последних штрихов по кругу
+        int strokes = 0;
+        int previous = -1;
+        int pos = 0;
+        while (pos < length) {
+            int strokeId = strokeIdAt(pos);
+            if (strokes == 0 || strokeId != previous) {
+                starts[strokes % starts.length] = pos;
+                strokes++;
+                previous = strokeId;
+            }
+            long recordLength = BinaryProtocol.readVarint(records, pos, length);
+            pos += BinaryProtocol.varintSize(recordLength) + (int) recordLength;
+        }
+        if (strokes <= Protocol.MAX_UNDO) return 0;
+        return starts[strokes % starts.length]; // самый старый из последних MAX_UNDO
+    }
+}
@@ -0,0 +1,27 @@
+package ru.game.server;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * виртуальные потоки Java 21 без зависимости от версии компилятора
+ * проект собирается под Java 11, поэтому Thread.ofVirtual() ищем через reflection
+ * на старой JDK возвращаем null и сервер остается на обычных потоках
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    // фабрика виртуальных потоков с именами prefix0, prefix1, ...
+    // null если JDK не поддерживает виртуальные потоки
+    static ThreadFactory factory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null; // Java 11-20 или превью не включено
+        }
+    }
+}
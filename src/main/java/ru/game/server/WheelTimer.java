@@ -0,0 +1,182 @@
+package ru.game.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * таймер-колесо (hashed wheel timer) для событий комнат:
+ * смена раунда, паузы, время хода, ожидание переподключения
+ *
+ * колесо из WHEEL_SIZE ячеек, стрелка сдвигается раз в tickMs
+ * событие кладется в ячейку своего срока и ждет нужное число оборотов
+ * добавление и отмена O(1), поток таймера на каждом тике смотрит
+ * только одну ячейку, поэтому десятки тысяч ожидающих таймеров почти
+ * ничего не стоят
+ * сработавшее событие выполняется в executor, поток таймера никогда
+ * не ждет комнату и не пишет в сокеты
+ */
+public class WheelTimer {
+    private static final int WHEEL_SIZE = 512;                 // степень двойки
+    private static final int MAX_TRANSFER_PER_TICK = 100_000;  // новых таймеров за один тик
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final Queue<Timeout> added;       // новые таймеры от других потоков
+    private final Executor executor;
+    private final Thread worker;
+    private final long startNanos;
+    private long tick;                        // номер текущего тика, только поток таймера
+    private volatile boolean running;
+
+    public WheelTimer(long tickMs, Executor executor, String name) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        this.wheel = new Bucket[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.added = new ConcurrentLinkedQueue<>();
+        this.executor = executor;
+        this.startNanos = System.nanoTime();
+        this.running = true;
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    // ЗАПЛАНИРОВАТЬ СОБЫТИЕ
+    // можно вызывать из любого потока, таймер заберет его на ближайшем тике
+    public Timeout schedule(Runnable task, long delayMs) {
+        long deadline = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(delayMs);
+        Timeout timeout = new Timeout(task, deadline);
+        added.offer(timeout);
+        return timeout;
+    }
+
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    // ГЛАВНЫЙ ЦИКЛ ТАЙМЕРА
+    // ждем следующий тик, раскладываем новые таймеры по ячейкам,
+    // запускаем созревшие таймеры текущей ячейки
+    private void run() {
+        while (running) {
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos = deadline - (System.nanoTime() - startNanos);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (!running) return;
+                }
+                continue; // проверим время еще раз
+            }
+
+            transferAdded();
+            wheel[(int) (tick & (WHEEL_SIZE - 1))].expire(executor);
+            tick++;
+        }
+    }
+
+    private void transferAdded() {
+        for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+            Timeout timeout = added.poll();
+            if (timeout == null) return;
+            if (timeout.isCancelled()) continue;
+
+            long ticks = Math.max(timeout.deadline / tickNanos, tick); // просроченные в текущую ячейку
+            timeout.remainingRounds = (ticks - tick) / WHEEL_SIZE;
+            wheel[(int) (ticks & (WHEEL_SIZE - 1))].add(timeout);
+        }
+    }
+
+    // КЛАСС Timeout
+    /**
+     * запланированное событие, можно отменить из любого потока
+     * отмененное событие удаляется из ячейки когда до нее дойдет стрелка
+     */
+    public static class Timeout {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline;              // наносекунды от старта таймера
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private long remainingRounds;             // сколько еще оборотов колеса ждать
+        private Timeout next;                     // связный список ячейки
+        private Timeout prev;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        // true если событие еще не сработало и теперь не сработает
+        public boolean cancel() {
+            return state.compareAndSet(WAITING, CANCELLED);
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        boolean expire() {
+            return state.compareAndSet(WAITING, EXPIRED);
+        }
+    }
+
+    // ячейка колеса: двусвязный список, трогает только поток таймера
+    private static class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.prev = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void expire(Executor executor) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    if (timeout.expire()) {
+                        executor.execute(timeout.task);
+                    }
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.next = null;
+            timeout.prev = null;
+        }
+    }
+}
@@ -1,62 +1,204 @@
 package ru.game.storage;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
 
 /**
  * сохранение и загрузка состояния игры
  */
 
 public class GameStorage {
-    private static final String STATS_FILE = "game_stats.json";
-    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
-    
+    public static final String STATS_FILE = "game_stats.json";
+    public static final String STATS_LOG_FILE = "game_stats.log"; // журнал изменений StatsStore
+    public static final String STATS_MAPPED_FILE = "game_stats.dat"; // файл записей MappedStatsStore
+    public static final String STATS_DB = "game_stats_db";          // база H2 для JdbcStatsStore (game_stats_db.mv.db)
+    public static final String REPLAY_DIR = "replays";              // записи раундов ReplayWriter
+    private static final Gson gson = new Gson();
+    private static final int IO_BUFFER = 64 * 1024;
+
+    // как записывать файл статистики, -Dgame.statsFormat=pretty|compact|gzip
+    // читается любой из них: gzip узнаем по первым байтам
+    public enum Format {
+        PRETTY,    // с отступами, как раньше
+        COMPACT,   // одной строкой без пробелов
+        GZIP;      // одной строкой и сжато gzip
+
+        static Format fromProperty(String value) {
+            if ("compact".equalsIgnoreCase(value)) return COMPACT;
+            if ("gzip".equalsIgnoreCase(value)) return GZIP;
+            return PRETTY;
+        }
+    }
+
+    public static final Format FORMAT = Format.fromProperty(System.getProperty("game.statsFormat"));
+
     /**
      * сохранить статистику игроков
      */
     public static void saveStats(List<PlayerStats> stats) {
-        try (Writer writer = new FileWriter(STATS_FILE)) { //объект для записи в файл
-            gson.toJson(stats, writer); //превратит stats в json и запишет в writer
+        try {
+            saveStats(stats, STATS_FILE);
         } catch (IOException e) {
             System.err.println("Ошибка сохранения статистики: " + e.getMessage());
         }
     }
+
+    /**
+     * сохранить статистику в указанный файл, ошибку отдаем вызывающему
+     * игроки пишутся по одному через JsonWriter, весь JSON в памяти не собирается
+     * пишем во временный файл рядом, сбрасываем его на диск и переименовываем
+     * поверх старого: при падении посреди записи остается целый старый файл
+     */
+    public static void saveStats(Iterable<PlayerStats> stats, String fileName) throws IOException {
+        saveStats(stats, fileName, FORMAT);
+    }
+
+    public static void saveStats(Iterable<PlayerStats> stats, String fileName, Format format) throws IOException {
+        Path target = Paths.get(fileName).toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile())) {
+            OutputStream out = new BufferedOutputStream(file, IO_BUFFER);
+            if (format == Format.GZIP) {
+                out = new GZIPOutputStream(out, IO_BUFFER);
+            }
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            if (format == Format.PRETTY) {
+                writer.setIndent("  ");
+            }
+            writer.beginArray();
+            for (PlayerStats player : stats) {
+                gson.toJson(player, PlayerStats.class, writer);
+            }
+            writer.endArray();
+            writer.flush();
+            if (out instanceof GZIPOutputStream) {
+                ((GZIPOutputStream) out).finish();
+            }
+            out.flush();
+            file.getFD().sync(); // данные на диске до переименования
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(target.getParent());
+    }
+
+    // переименование тоже должно дойти до диска
+    // на Windows папку так открыть нельзя, там просто пропускаем
+    static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // не поддерживается системой
+        }
+    }
     
     /**
      * загрузить статистику игроков
      */
     public static List<PlayerStats> loadStats() {
-        File file = new File(STATS_FILE);
-        if (!file.exists()) { //если файла не сущ
+        try {
+            return loadStats(STATS_FILE);
+        } catch (IOException e) {
+            System.err.println("Ошибка загрузки статистики: " + e.getMessage());
             return new ArrayList<>();
         }
+    }
+
+    /**
+     * загрузить статистику из указанного файла списком
+     */
+    public static List<PlayerStats> loadStats(String fileName) throws IOException {
+        List<PlayerStats> stats = new ArrayList<>();
+        readStats(fileName, stats::add);
+        return stats;
+    }
+
+    /**
+     * прочитать файл статистики по одному игроку, памяти нужно на одну запись
+     * испорченный файл не считаем пустым молча: то что успели прочитать
+     * остается у вызывающего, а сам файл откладываем в имя.corrupt-время,
+     * чтобы следующее сохранение его не затерло
+     * ошибку чтения отдаем вызывающему
+     * возвращает число прочитанных игроков
+     */
+    public static int readStats(String fileName, Consumer<PlayerStats> consumer) throws IOException {
+        return readStats(fileName, consumer, true);
+    }
 
-        //открываем файл для чтения
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            StringBuilder json = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                json.append(line).append("\n");
+    /**
+     * то же, но если moveCorrupt false, испорченный файл не трогается,
+     * а чтение кончается ошибкой (источник переноса менять нельзя)
+     */
+    static int readStats(String fileName, Consumer<PlayerStats> consumer, boolean moveCorrupt) throws IOException {
+        File file = new File(fileName);
+        if (!file.exists()) { //если файла не сущ
+            return 0;
+        }
+
+        int count = 0;
+        String problem = null;
+        try (InputStream in = openStats(file)) {
+            JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            if (reader.peek() == JsonToken.END_DOCUMENT) {
+                return 0; // пустой файл
             }
-            
-            String jsonString = json.toString().trim();
-            if (jsonString.isEmpty()) {
-                return new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                PlayerStats stats = gson.fromJson(reader, PlayerStats.class);
+                if (stats != null && stats.getNickname() != null) {
+                    consumer.accept(stats);
+                    count++;
+                }
             }
+            reader.endArray();
+        } catch (JsonParseException | MalformedJsonException | EOFException | ZipException e) {
+            problem = e.getMessage();
+        }
+        if (problem != null && !moveCorrupt) {
+            throw new IOException("файл статистики " + fileName + " испорчен (" + problem + ")");
+        }
+        if (problem != null) {
+            Path corrupt = Paths.get(fileName + ".corrupt-" + System.currentTimeMillis());
+            Files.move(file.toPath(), corrupt);
+            System.err.println("!!! Файл статистики " + fileName + " испорчен (" + problem + ")");
+            System.err.println("!!! Он сохранен как " + corrupt + ", до ошибки прочитано игроков: " + count);
+        }
+        return count;
+    }
 
-            //из json получаем массив обьектов PlayerStats
-            PlayerStats[] stats = gson.fromJson(jsonString, PlayerStats[].class);
-            if (stats != null) {
-                return new ArrayList<>(Arrays.asList(stats));
-            }
-        } catch (IOException e) {
-            System.err.println("Ошибка загрузки статистики: " + e.getMessage());
+    // открыть файл, сжатый распаковываем на лету
+    private static InputStream openStats(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), IO_BUFFER);
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+        if (first == 0x1f && second == 0x8b) { // заголовок gzip
+            return new GZIPInputStream(in, IO_BUFFER);
         }
-        return new ArrayList<>();
+        return in;
     }
     
     /**
@@ -0,0 +1,296 @@
+package ru.game.storage;
+
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * статистика игроков во встроенной базе H2 (файл game_stats_db.mv.db)
+ * таблица player_stats с первичным ключом по нику, поэтому поиск
+ * игрока это поиск по индексу, а не чтение всего файла
+ *
+ * игроки которые играли после запуска сервера лежат в кэше,
+ * record меняет кэш и кладет итог в очередь; отдельный поток
+ * пишет очередь пачками: один MERGE с addBatch и один commit на пачку
+ * в пачке остается только последнее значение каждого игрока
+ * если пачка не записалась, ее строки не выбрасываются: писатель
+ * повторяет ее с растущей паузой, новые итоги тем временем сливаются в нее же
+ */
+public class JdbcStatsStore implements StatsRepository {
+    private static final int MAX_BATCH = 1024;  // строк за одну транзакцию
+    private static final long RETRY_MIN_MS = 1000;   // пауза после ошибки записи
+    private static final long RETRY_MAX_MS = 60_000; // и дольше не растет
+
+    private final Connection connection;        // соединение писателя
+    private final Connection reader;            // чтение, под synchronized (reader), не ждет запись пачки
+    private final Map<String, GameStorage.PlayerStats> cache = new ConcurrentHashMap<>();
+    private final BlockingQueue<GameStorage.PlayerStats> pending = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+    private final AtomicLong enqueued = new AtomicLong(); // строк поставлено в очередь
+    private long written;                                 // из них записано, под synchronized (progress)
+    private final Object progress = new Object();
+    private volatile boolean failed;                      // последняя пачка не записалась
+    // только поток писателя: последние строки игроков, еще не записанные в базу
+    private final Map<String, GameStorage.PlayerStats> latest = new LinkedHashMap<>();
+    private int unwritten;                                // сколько строк очереди в них слито
+
+    private static final GameStorage.PlayerStats STOP = new GameStorage.PlayerStats("");
+
+    public JdbcStatsStore(String database) throws SQLException {
+        // H2 не принимает путь относительно текущей папки без ./
+        String url = "jdbc:h2:file:" + Paths.get(database).toAbsolutePath();
+        this.connection = DriverManager.getConnection(url, "sa", "");
+        this.connection.setAutoCommit(false);
+        this.reader = DriverManager.getConnection(url, "sa", "");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS player_stats ("
+                    + "nickname VARCHAR PRIMARY KEY, "
+                    + "total_score INT NOT NULL, "
+                    + "games_played INT NOT NULL)");
+            connection.commit();
+        }
+        this.writer = new Thread(this::writeLoop, "stats-db-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // ЗАПИСАТЬ ИТОГ ИГРОКА
+    // первый раз игрок читается из базы по индексу, дальше только кэш
+    @Override
+    public int record(String nickname, int points) {
+        GameStorage.PlayerStats stats = cache.computeIfAbsent(nickname, this::loadOrCreate);
+        GameStorage.PlayerStats row;
+        synchronized (stats) {
+            stats.setTotalScore(stats.getTotalScore() + points);
+            stats.setGamesPlayed(stats.getGamesPlayed() + 1);
+            row = copy(stats);
+            enqueued.incrementAndGet();
+            pending.offer(row); // под замком игрока, чтобы его строки шли в очередь по порядку
+        }
+        return row.getTotalScore();
+    }
+
+    @Override
+    public GameStorage.PlayerStats get(String nickname) {
+        GameStorage.PlayerStats stats = cache.get(nickname);
+        if (stats != null) {
+            synchronized (stats) {
+                return copy(stats);
+            }
+        }
+        return select(nickname);
+    }
+
+    // все строки таблицы, очередь перед этим дописываем
+    @Override
+    public List<GameStorage.PlayerStats> all() {
+        awaitWritten();
+        List<GameStorage.PlayerStats> all = new ArrayList<>();
+        synchronized (reader) {
+            try (Statement statement = reader.createStatement();
+                 ResultSet rows = statement.executeQuery(
+                         "SELECT nickname, total_score, games_played FROM player_stats")) {
+                while (rows.next()) {
+                    all.add(read(rows));
+                }
+            } catch (SQLException e) {
+                System.err.println("Ошибка чтения статистики из базы: " + e.getMessage());
+            }
+        }
+        return all;
+    }
+
+    @Override
+    public int size() {
+        awaitWritten();
+        synchronized (reader) {
+            try (Statement statement = reader.createStatement();
+                 ResultSet rows = statement.executeQuery("SELECT COUNT(*) FROM player_stats")) {
+                return rows.next() ? rows.getInt(1) : 0;
+            } catch (SQLException e) {
+                System.err.println("Ошибка чтения статистики из базы: " + e.getMessage());
+                return 0;
+            }
+        }
+    }
+
+    // ОСТАНОВКА: дописываем очередь и закрываем базу
+    // частые commit оставляют в файле старые страницы, при закрытии база их сжимает
+    @Override
+    public void close() {
+        if (!running) return;
+        running = false;
+        pending.offer(STOP);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (reader) {
+            try (Statement statement = connection.createStatement()) {
+                reader.close();
+                statement.execute("SHUTDOWN COMPACT");
+                connection.close();
+            } catch (SQLException e) {
+                System.err.println("Ошибка закрытия базы статистики: " + e.getMessage());
+            }
+        }
+    }
+
+    private GameStorage.PlayerStats loadOrCreate(String nickname) {
+        GameStorage.PlayerStats stats = select(nickname);
+        return stats != null ? stats : new GameStorage.PlayerStats(nickname);
+    }
+
+    private GameStorage.PlayerStats select(String nickname) {
+        synchronized (reader) {
+            try (PreparedStatement statement = reader.prepareStatement(
+                    "SELECT nickname, total_score, games_played FROM player_stats WHERE nickname = ?")) {
+                statement.setString(1, nickname);
+                try (ResultSet rows = statement.executeQuery()) {
+                    return rows.next() ? read(rows) : null;
+                }
+            } catch (SQLException e) {
+                System.err.println("Ошибка чтения статистики из базы: " + e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    // ждем пока писатель запишет все что поставлено до этого вызова
+    // если база не пишет, не ждем: читаем то, что в ней уже есть
+    private void awaitWritten() {
+        long target = enqueued.get();
+        synchronized (progress) {
+            while (written < target && writer.isAlive() && !failed) {
+                try {
+                    progress.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // ПОТОК ПИСАТЕЛЯ
+    // ждет первую строку, забирает все что накопилось и пишет одной транзакцией
+    // written растет только после commit; если пачка не записалась,
+    // ждем паузу и пробуем снова вместе со строками пришедшими за это время
+    private void writeLoop() {
+        List<GameStorage.PlayerStats> batch = new ArrayList<>(MAX_BATCH);
+        long retryMs = RETRY_MIN_MS;
+        boolean stop = false;
+        try {
+            while (true) {
+                if (failed) {
+                    stop = backoff(retryMs);
+                    retryMs = Math.min(retryMs * 2, RETRY_MAX_MS);
+                } else {
+                    batch.add(pending.take());
+                    pending.drainTo(batch, MAX_BATCH - 1);
+                    for (GameStorage.PlayerStats row : batch) {
+                        stop |= add(row);
+                    }
+                    batch.clear();
+                }
+                if (!latest.isEmpty() && !merge(latest.values())) {
+                    failed = true;
+                    if (stop) {
+                        System.err.println("!!! Статистика " + latest.size() + " игроков не записана в базу при остановке");
+                        return;
+                    }
+                    System.err.println("!!! Статистика пока только в памяти, повтор через " + retryMs / 1000 + " с");
+                    continue;
+                }
+                if (failed) {
+                    failed = false;
+                    retryMs = RETRY_MIN_MS;
+                    System.err.println("Запись статистики в базу снова работает");
+                }
+                latest.clear();
+                synchronized (progress) {
+                    written += unwritten;
+                    progress.notifyAll();
+                }
+                unwritten = 0;
+                if (stop) return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // строка очереди в пачку, true если это команда остановки
+    private boolean add(GameStorage.PlayerStats row) {
+        if (row == STOP) return true;
+        latest.put(row.getNickname(), row); // старые значения игрока в пачке не нужны
+        unwritten++;
+        return false;
+    }
+
+    // пауза перед повтором, новые строки сливаются в пачку
+    // true если за это время пришла остановка, тогда сразу последняя попытка
+    private boolean backoff(long ms) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + ms;
+        long left = ms;
+        while (left > 0) {
+            GameStorage.PlayerStats row = pending.poll(left, TimeUnit.MILLISECONDS);
+            if (row != null && add(row)) return true;
+            left = deadline - System.currentTimeMillis();
+        }
+        return false;
+    }
+
+    // false если пачка не записалась, тогда она откачена целиком
+    private boolean merge(Iterable<GameStorage.PlayerStats> rows) {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "MERGE INTO player_stats (nickname, total_score, games_played) KEY (nickname) VALUES (?, ?, ?)")) {
+            for (GameStorage.PlayerStats row : rows) {
+                statement.setString(1, row.getNickname());
+                statement.setInt(2, row.getTotalScore());
+                statement.setInt(3, row.getGamesPlayed());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            connection.commit();
+            return true;
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("Ошибка записи статистики в базу: " + e.getMessage());
+            try {
+                connection.rollback();
+            } catch (SQLException ignored) {
+                // соединение уже сломано, сообщение выше
+            }
+            return false;
+        }
+    }
+
+    private static GameStorage.PlayerStats read(ResultSet rows) throws SQLException {
+        GameStorage.PlayerStats stats = new GameStorage.PlayerStats(rows.getString(1));
+        stats.setTotalScore(rows.getInt(2));
+        stats.setGamesPlayed(rows.getInt(3));
+        return stats;
+    }
+
+    private static GameStorage.PlayerStats copy(GameStorage.PlayerStats stats) {
+        GameStorage.PlayerStats copy = new GameStorage.PlayerStats(stats.getNickname());
+        copy.setTotalScore(stats.getTotalScore());
+        copy.setGamesPlayed(stats.getGamesPlayed());
+        return copy;
+    }
+}
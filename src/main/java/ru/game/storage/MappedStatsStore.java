@@ -0,0 +1,282 @@
+package ru.game.storage;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * статистика игроков в файле записей фиксированного размера,
+ * файл отображен в память (memory-mapped)
+ *
+ * изменение игрока пишет два числа прямо на место его записи,
+ * файл целиком не читается и не переписывается
+ * чтобы найти запись по нику, в памяти держится хэш-таблица
+ * с открытой адресацией: ник -> номер записи; при открытии
+ * она строится по хэшам из записей без разбора ников
+ *
+ * заголовок [магия][размер записи][число записей], дальше записи:
+ * [хэш ника int][длина ника short][ник UTF-8, до NICK_BYTES][очки int][игры int]
+ * запись новому игроку сначала пишется целиком, потом растет число записей,
+ * поэтому оборванное добавление просто не видно при следующем открытии
+ *
+ * на диск страницы сбрасывает система, force делается при закрытии
+ */
+public class MappedStatsStore implements StatsRepository {
+    private static final int MAGIC = 0x47535431;         // "GST1"
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 128;
+    public static final int NICK_BYTES = 110;            // ник длиннее не помещается в запись
+    private static final int INITIAL_RECORDS = 1024;
+    private static final int MAX_RECORDS = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE; // один буфер до 2 ГБ
+
+    // смещения полей в заголовке и в записи
+    private static final int COUNT_OFFSET = 8;
+    private static final int HASH = 0;
+    private static final int NICK_LENGTH = 4;
+    private static final int NICK = 6;
+    private static final int SCORE = NICK + NICK_BYTES;
+    private static final int GAMES = SCORE + 4;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;    // записей помещается в отображенную часть
+    private int count;       // записей занято
+
+    // хэш-таблица: номер записи + 1 (0 - пусто) и хэш ника рядом,
+    // чтобы при промахе не лезть в файл
+    private int[] slots;
+    private int[] hashes;
+
+    public MappedStatsStore(String fileName) throws IOException {
+        this.file = new RandomAccessFile(fileName, "rw");
+        this.channel = file.getChannel();
+        try {
+            open();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    // сервер обрезает ники при входе (Protocol.MAX_NICKNAME_BYTES меньше NICK_BYTES),
+    // поэтому длинный ник тут ошибка вызывающего, молча терять очки нельзя
+    @Override
+    public synchronized int record(String nickname, int points) {
+        byte[] nick = nickname.getBytes(StandardCharsets.UTF_8);
+        if (nick.length > NICK_BYTES) {
+            throw new IllegalArgumentException("ник длиннее " + NICK_BYTES + " байт: " + nickname);
+        }
+        int hash = nickname.hashCode();
+        int record = find(nick, hash);
+        if (record < 0) {
+            record = add(nick, hash);
+        }
+        int at = offset(record);
+        int total = buffer.getInt(at + SCORE) + points;
+        buffer.putInt(at + SCORE, total);
+        buffer.putInt(at + GAMES, buffer.getInt(at + GAMES) + 1);
+        return total;
+    }
+
+    /**
+     * записать значения игрока как есть (для переноса из другого хранилища)
+     * false если ник длиннее NICK_BYTES и записать его некуда
+     */
+    public synchronized boolean put(GameStorage.PlayerStats stats) {
+        byte[] nick = stats.getNickname().getBytes(StandardCharsets.UTF_8);
+        if (nick.length > NICK_BYTES) {
+            System.err.println("Ник слишком длинный для файла статистики: " + stats.getNickname());
+            return false;
+        }
+        int hash = stats.getNickname().hashCode();
+        int record = find(nick, hash);
+        if (record < 0) {
+            record = add(nick, hash);
+        }
+        int at = offset(record);
+        buffer.putInt(at + SCORE, stats.getTotalScore());
+        buffer.putInt(at + GAMES, stats.getGamesPlayed());
+        return true;
+    }
+
+    @Override
+    public synchronized GameStorage.PlayerStats get(String nickname) {
+        byte[] nick = nickname.getBytes(StandardCharsets.UTF_8);
+        int record = find(nick, nickname.hashCode());
+        if (record < 0) return null;
+        int at = offset(record);
+        GameStorage.PlayerStats stats = new GameStorage.PlayerStats(nickname);
+        stats.setTotalScore(buffer.getInt(at + SCORE));
+        stats.setGamesPlayed(buffer.getInt(at + GAMES));
+        return stats;
+    }
+
+    @Override
+    public synchronized List<GameStorage.PlayerStats> all() {
+        List<GameStorage.PlayerStats> all = new ArrayList<>(count);
+        byte[] nick = new byte[NICK_BYTES];
+        for (int record = 0; record < count; record++) {
+            int at = offset(record);
+            int length = buffer.getShort(at + NICK_LENGTH);
+            buffer.position(at + NICK);
+            buffer.get(nick, 0, length);
+            GameStorage.PlayerStats stats =
+                    new GameStorage.PlayerStats(new String(nick, 0, length, StandardCharsets.UTF_8));
+            stats.setTotalScore(buffer.getInt(at + SCORE));
+            stats.setGamesPlayed(buffer.getInt(at + GAMES));
+            all.add(stats);
+        }
+        return all;
+    }
+
+    @Override
+    public synchronized int size() {
+        return count;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!channel.isOpen()) return;
+        try {
+            buffer.force();
+            file.close();
+        } catch (IOException e) {
+            System.err.println("Ошибка закрытия файла статистики: " + e.getMessage());
+        }
+    }
+
+    // ОТКРЫТИЕ: новый файл размечаем, у старого проверяем заголовок
+    private void open() throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            map(INITIAL_RECORDS);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, RECORD_SIZE);
+            buffer.putInt(COUNT_OFFSET, 0);
+        } else {
+            if (size < HEADER_SIZE) {
+                throw new IOException("файл статистики обрезан");
+            }
+            map((int) Math.min(MAX_RECORDS, (size - HEADER_SIZE) / RECORD_SIZE));
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != RECORD_SIZE) {
+                throw new IOException("это не файл статистики");
+            }
+        }
+        count = buffer.getInt(COUNT_OFFSET);
+        if (count < 0 || count > capacity) {
+            throw new IOException("испорчено число записей: " + count);
+        }
+
+        slots = new int[tableSize(count)];
+        hashes = new int[slots.length];
+        for (int record = 0; record < count; record++) {
+            insert(record, buffer.getInt(offset(record) + HASH));
+        }
+    }
+
+    private void map(int records) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) records * RECORD_SIZE);
+        capacity = records;
+    }
+
+    // ПОИСК ЗАПИСИ ПО НИКУ, -1 если нет
+    private int find(byte[] nick, int hash) {
+        int mask = slots.length - 1;
+        for (int i = spread(hash) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            if (hashes[i] == hash && nickEquals(slots[i] - 1, nick)) {
+                return slots[i] - 1;
+            }
+        }
+        return -1;
+    }
+
+    // ник сравниваем прямо в отображенном файле, без создания строки
+    private boolean nickEquals(int record, byte[] nick) {
+        int at = offset(record);
+        if (buffer.getShort(at + NICK_LENGTH) != nick.length) return false;
+        for (int i = 0; i < nick.length; i++) {
+            if (buffer.get(at + NICK + i) != nick[i]) return false;
+        }
+        return true;
+    }
+
+    // НОВЫЙ ИГРОК В КОНЕЦ ФАЙЛА
+    private int add(byte[] nick, int hash) {
+        if (count == capacity) {
+            grow();
+        }
+        int record = count;
+        int at = offset(record);
+        buffer.putInt(at + HASH, hash);
+        buffer.putShort(at + NICK_LENGTH, (short) nick.length);
+        buffer.position(at + NICK);
+        buffer.put(nick);
+        buffer.putInt(at + SCORE, 0);
+        buffer.putInt(at + GAMES, 0);
+        count++;
+        buffer.putInt(COUNT_OFFSET, count); // запись уже на месте
+
+        if (count * 2 > slots.length) {
+            rehash();
+        }
+        insert(record, hash);
+        return record;
+    }
+
+    // файл растет вдвое, отображаем его заново
+    private void grow() {
+        if (capacity == MAX_RECORDS) {
+            throw new IllegalStateException("файл статистики заполнен");
+        }
+        try {
+            map((int) Math.min(MAX_RECORDS, capacity * 2L));
+        } catch (IOException e) {
+            throw new IllegalStateException("не удалось увеличить файл статистики", e);
+        }
+    }
+
+    private void insert(int record, int hash) {
+        int mask = slots.length - 1;
+        int i = spread(hash) & mask;
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = record + 1;
+        hashes[i] = hash;
+    }
+
+    private void rehash() {
+        int[] oldSlots = slots;
+        int[] oldHashes = hashes;
+        slots = new int[oldSlots.length * 2];
+        hashes = new int[slots.length];
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] != 0) {
+                insert(oldSlots[i] - 1, oldHashes[i]);
+            }
+        }
+    }
+
+    // таблица заполнена не больше чем наполовину
+    private static int tableSize(int records) {
+        int size = 16;
+        while (size < records * 2) {
+            size <<= 1;
+        }
+        return size * 2;
+    }
+
+    // у похожих ников (игрок1, игрок2) младшие биты хэша рядом, перемешиваем
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int offset(int record) {
+        return HEADER_SIZE + record * RECORD_SIZE;
+    }
+}
@@ -0,0 +1,232 @@
+package ru.game.storage;
+
+import ru.game.protocol.BinaryProtocol;
+import ru.game.protocol.StrokePolyline;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * чтение записанных раундов из папки replays (формат в ReplayWriter)
+ * файлы читаются по порядку и по одному раунду, вся папка
+ * в памяти не держится
+ *
+ * недописанный последний раунд файла (сервер остановили посреди записи)
+ * или запись с неверной контрольной суммой заканчивают чтение этого файла,
+ * дальше читается следующий
+ */
+public class ReplayReader implements Closeable {
+
+    /**
+     * события раунда, time - мс от начала раунда
+     * player и winner null если игрока нет в шапке раунда
+     */
+    public interface Handler {
+        void onStroke(long time, StrokePolyline polyline);
+        void onClear(long time);
+        void onUndo(long time, int strokeId);
+        void onGuess(long time, String player, String text);
+        void onChat(long time, String player, String text);
+        void onEnd(long time, int outcome, String winner);
+    }
+
+    // один записанный раунд: шапка разобрана, события по запросу
+    public static class Round {
+        private final byte[] data;
+        private int pos;
+        private final long startTime;
+        private final long roomId;
+        private final String word;
+        private final String[] players;
+        private final int drawer;
+        private final int eventsStart;
+
+        Round(byte[] data) throws IOException {
+            this.data = data;
+            long time = 0;
+            for (int i = 0; i < 8; i++) {
+                time = (time << 8) | (data[pos++] & 0xFF);
+            }
+            this.startTime = time;
+            this.roomId = varint();
+            this.word = string();
+            this.players = new String[varint()];
+            for (int i = 0; i < players.length; i++) {
+                players[i] = string();
+            }
+            this.drawer = varint();
+            this.eventsStart = pos;
+        }
+
+        public long getStartTime() { return startTime; }
+        public long getRoomId() { return roomId; }
+        public String getWord() { return word; }
+        public String[] getPlayers() { return players.clone(); }
+        public String getDrawer() { return player(drawer + 1); }
+
+        /**
+         * пройти события раунда по порядку, можно вызывать повторно
+         * false если запись раунда испорчена и события кончились раньше
+         */
+        public boolean events(Handler handler) {
+            pos = eventsStart;
+            long time = 0;
+            StrokePolyline polyline = new StrokePolyline();
+            try {
+                while (pos < data.length) {
+                    int type = data[pos++];
+                    time += varint();
+                    switch (type) {
+                        case ReplayWriter.EVENT_STROKE:
+                            int length = varint();
+                            if (!BinaryProtocol.decodePolyline(data, pos, length, polyline)) return false;
+                            pos += length;
+                            handler.onStroke(time, polyline);
+                            break;
+                        case ReplayWriter.EVENT_CLEAR:
+                            handler.onClear(time);
+                            break;
+                        case ReplayWriter.EVENT_UNDO:
+                            handler.onUndo(time, varint());
+                            break;
+                        case ReplayWriter.EVENT_GUESS:
+                            handler.onGuess(time, player(varint()), string());
+                            break;
+                        case ReplayWriter.EVENT_CHAT:
+                            handler.onChat(time, player(varint()), string());
+                            break;
+                        case ReplayWriter.EVENT_END:
+                            int outcome = data[pos++];
+                            handler.onEnd(time, outcome, player(varint()));
+                            return true;
+                        default:
+                            return false;
+                    }
+                }
+            } catch (IOException | IndexOutOfBoundsException e) {
+                return false;
+            }
+            return false; // раунд без итога
+        }
+
+        // номер игрока + 1, 0 значит нет
+        private String player(int number) {
+            return number > 0 && number <= players.length ? players[number - 1] : null;
+        }
+
+        private int varint() throws IOException {
+            long value = BinaryProtocol.readVarint(data, pos, data.length);
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new IOException("запись раунда обрезана");
+            }
+            pos += BinaryProtocol.varintSize(value);
+            return (int) value;
+        }
+
+        private String string() throws IOException {
+            int length = varint();
+            if (length > data.length - pos) {
+                throw new IOException("запись раунда обрезана");
+            }
+            String value = new String(data, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+    }
+
+    private final List<Path> segments;
+    private int nextSegment;
+    private DataInputStream in;      // текущий файл, null если еще не открыт
+    private Path current;
+    private final CRC32 crc = new CRC32();
+
+    public ReplayReader(String directory) throws IOException {
+        this.segments = ReplayWriter.segments(Paths.get(directory));
+    }
+
+    /**
+     * следующий раунд, null если записи кончились
+     */
+    public Round next() throws IOException {
+        while (true) {
+            if (in == null && !openNext()) {
+                return null;
+            }
+            Round round = readRound();
+            if (round != null) {
+                return round;
+            }
+            in.close();
+            in = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+            in = null;
+        }
+        nextSegment = segments.size();
+    }
+
+    private boolean openNext() throws IOException {
+        while (nextSegment < segments.size()) {
+            current = segments.get(nextSegment++);
+            try {
+                in = new DataInputStream(new BufferedInputStream(Files.newInputStream(current), 64 * 1024));
+            } catch (NoSuchFileException e) {
+                continue; // сервер удалил старый файл пока мы читали
+            }
+            try {
+                if (in.readInt() == ReplayWriter.MAGIC) {
+                    return true;
+                }
+                System.err.println("Не файл записей раундов: " + current);
+            } catch (EOFException e) {
+                // пустой файл, сервер остановился сразу после создания
+            }
+            in.close();
+            in = null;
+        }
+        return false;
+    }
+
+    // раунд из текущего файла, null если файл кончился или дальше испорчен
+    private Round readRound() throws IOException {
+        try {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length <= 0 || length > ReplayWriter.MAX_ROUND) {
+                System.err.println("Записи раундов " + current + ": неверная длина " + length + ", остаток файла пропущен");
+                return null;
+            }
+            byte[] data = new byte[length];
+            in.readFully(data);
+            crc.reset();
+            crc.update(data);
+            if ((int) crc.getValue() != checksum) {
+                System.err.println("Записи раундов " + current + ": не сходится контрольная сумма, остаток файла пропущен");
+                return null;
+            }
+            try {
+                return new Round(data);
+            } catch (IOException | IndexOutOfBoundsException e) {
+                System.err.println("Записи раундов " + current + ": не разобрать шапку раунда, пропущен");
+                return readRound();
+            }
+        } catch (EOFException e) {
+            return null; // конец файла или недописанный раунд
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package ru.game.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * запись сыгранных раундов в папку replays
+ * файлы только дописываются: replay-000001.bin, replay-000002.bin ...
+ * когда файл больше SEGMENT_BYTES, начинается следующий,
+ * старые файлы сверх MAX_SEGMENTS удаляются целиком
+ *
+ * файл: [магия] и записи [длина int][crc32 int][раунд]
+ * раунд собирает комната (RoundRecorder), здесь он только байты:
+ * [начало мс long][комната varint][слово][игроков varint][ники...][рисующий varint]
+ * и события [тип байт][мс от прошлого события varint][данные]
+ * строки как [длина varint][UTF-8]
+ *
+ * комната только кладет готовый раунд в очередь, на диск пишет
+ * отдельный поток; если диск не успевает и очередь полна, раунд
+ * пропускается, игра из-за записи не ждет
+ * при запуске всегда начинается новый файл, недописанный хвост
+ * прошлого запуска не трогаем, читатель его просто пропустит
+ * после ошибки диска запись раундов выключается до перезапуска сервера
+ */
+public class ReplayWriter {
+    public static final int MAGIC = 0x47525031;                       // "GRP1" в начале файла
+    public static final int MAX_ROUND = 8 * 1024 * 1024;             // запись раунда не длиннее
+    static final String PREFIX = "replay-";
+    static final String SUFFIX = ".bin";
+    private static final long SEGMENT_BYTES = 16 * 1024 * 1024;       // размер файла до смены
+    private static final int MAX_SEGMENTS = Integer.getInteger("game.replaySegments", 64); // файлов храним
+    private static final int QUEUE_LIMIT = 1024;                      // раундов ждут записи
+    private static final long CLOSE_WAIT_MS = 10_000;                 // остановка не ждет диск дольше
+
+    // события раунда
+    public static final int EVENT_STROKE = 1;  // [длина varint][данные POLYLINE]
+    public static final int EVENT_CLEAR = 2;   // без данных
+    public static final int EVENT_GUESS = 3;   // [игрок varint][текст]
+    public static final int EVENT_CHAT = 4;    // [игрок varint][текст]
+    public static final int EVENT_END = 5;     // [итог байт][победитель + 1 varint, 0 если никто]
+    public static final int EVENT_UNDO = 6;    // [штрих varint] рисующий отменил штрих
+
+    // итог раунда
+    public static final int OUTCOME_GUESSED = 1;
+    public static final int OUTCOME_TIMEOUT = 2;
+    public static final int OUTCOME_ABANDONED = 3;
+
+    private static final byte[] STOP = new byte[0];
+
+    private final Path directory;
+    private final BlockingQueue<byte[]> pending = new ArrayBlockingQueue<>(QUEUE_LIMIT);
+    private final Thread writer;
+    private final CRC32 crc = new CRC32();
+    private volatile boolean running = true;
+    private int segment;                // номер текущего файла
+    private DataOutputStream out;       // только поток писателя, null пока раундов не было
+    private FileChannel channel;
+    private long segmentBytes;
+    private final AtomicLong dropped = new AtomicLong();
+
+    public ReplayWriter(String directory) throws IOException {
+        this.directory = Paths.get(directory);
+        Files.createDirectories(this.directory);
+        List<Path> existing = segments(this.directory);
+        this.segment = existing.isEmpty() ? 0 : number(existing.get(existing.size() - 1));
+        this.writer = new Thread(this::writeLoop, "replay-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * поставить раунд в очередь записи, не ждет диска
+     * false если очередь полна и раунд пропущен
+     */
+    public boolean append(byte[] round) {
+        if (!running) return false;
+        if (pending.offer(round)) return true;
+        long count = dropped.incrementAndGet();
+        if (count % 100 == 1) {
+            System.err.println("Запись раундов не успевает, пропущено: " + count);
+        }
+        return false;
+    }
+
+    // ОСТАНОВКА: дописываем очередь и сбрасываем файл на диск
+    // вызывается из shutdown hook, поэтому ждет ограниченное время:
+    // если писатель завис на диске, JVM все равно должна завершиться
+    public void close() {
+        if (!running) return; // уже остановлен или писатель упал и закрыл файл сам
+        running = false;
+        if (!writer.isAlive()) return;
+        try {
+            if (pending.offer(STOP, CLOSE_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                writer.join(CLOSE_WAIT_MS);
+            }
+            if (writer.isAlive()) {
+                System.err.println("Запись раундов не успела завершиться, последние раунды потеряны");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ПОТОК ПИСАТЕЛЯ
+    // ждет раунд, забирает все что накопилось, после пачки один flush
+    private void writeLoop() {
+        List<byte[]> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(pending.take());
+                pending.drainTo(batch);
+                boolean stop = false;
+                for (byte[] round : batch) {
+                    if (round == STOP) {
+                        stop = true;
+                    } else {
+                        write(round);
+                    }
+                }
+                batch.clear();
+                if (out != null) {
+                    out.flush();
+                }
+                if (stop) {
+                    closeSegment();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // например диск заполнен: дальше не пишем, очередь больше не копится
+            System.err.println("Ошибка записи раундов, запись выключена: " + e.getMessage());
+            running = false;
+            pending.clear();
+            abandonSegment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(byte[] round) throws IOException {
+        if (out == null || segmentBytes > SEGMENT_BYTES) {
+            rotate();
+        }
+        crc.reset();
+        crc.update(round);
+        out.writeInt(round.length);
+        out.writeInt((int) crc.getValue());
+        out.write(round);
+        segmentBytes += 8 + round.length;
+    }
+
+    // СЛЕДУЮЩИЙ ФАЙЛ
+    // закрытый файл больше не меняется, поэтому его можно копировать и удалять
+    private void rotate() throws IOException {
+        closeSegment();
+        segment++;
+        FileOutputStream file = new FileOutputStream(directory.resolve(name(segment)).toFile());
+        channel = file.getChannel();
+        out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024));
+        out.writeInt(MAGIC);
+        segmentBytes = 4;
+
+        List<Path> all = segments(directory);
+        for (int i = 0; i < all.size() - MAX_SEGMENTS; i++) {
+            Files.deleteIfExists(all.get(i));
+        }
+    }
+
+    private void closeSegment() throws IOException {
+        if (out == null) return;
+        out.flush();
+        channel.force(false);
+        out.close();
+        out = null;
+    }
+
+    // закрыть файл после ошибки, что успело записаться, читатель прочтет
+    private void abandonSegment() {
+        try {
+            closeSegment();
+        } catch (IOException e) {
+            try {
+                out.close(); // файл закрывается даже если сброс буфера не удался
+            } catch (IOException ignored) {
+                // файл уже испорчен
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * файлы записей в папке по порядку номеров
+     */
+    public static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) return segments;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                if (number(file) > 0) {
+                    segments.add(file);
+                }
+            }
+        }
+        Collections.sort(segments); // номер дополнен нулями, порядок имен это порядок номеров
+        return segments;
+    }
+
+    private static String name(int number) {
+        return String.format("%s%06d%s", PREFIX, number, SUFFIX);
+    }
+
+    // номер из имени файла, 0 если имя чужое
+    private static int number(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return 0;
+        }
+    }
+}
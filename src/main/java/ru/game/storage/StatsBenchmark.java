@@ -0,0 +1,115 @@
+package ru.game.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * сравнение хранилищ статистики на разном числе игроков
+ * запуск: java ru.game.storage.StatsBenchmark [игроков ...], по умолчанию 10000 100000 1000000
+ * для h2 драйвер должен быть в classpath (mvn exec или jar из ~/.m2)
+ *
+ * для каждого хранилища в отдельной временной папке:
+ * новые игроки (record по разу), закрытие с записью на диск,
+ * открытие заново, повторные игры случайных игроков и поиск по нику
+ */
+public class StatsBenchmark {
+    private static final String[] KINDS = {"json", "mapped", "h2"};
+    private static final int LOOKUPS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length > 0
+                ? Stream.of(args).mapToInt(Integer::parseInt).toArray()
+                : new int[]{10_000, 100_000, 1_000_000};
+
+        System.out.printf("%-9s %9s %12s %9s %9s %12s %10s %10s%n",
+                "хранилище", "игроков", "новые/с", "закр мс", "откр мс", "игры/с", "поиск мкс", "диск КБ");
+        for (int players : sizes) {
+            for (String kind : KINDS) {
+                run(kind, players);
+            }
+        }
+    }
+
+    private static void run(String kind, int players) throws Exception {
+        Path dir = Files.createTempDirectory("stats-bench");
+        try {
+            String[] nicknames = new String[players];
+            for (int i = 0; i < players; i++) {
+                nicknames[i] = "игрок" + i;
+            }
+            Random random = new Random(players);
+
+            StatsRepository store = open(kind, dir);
+            long start = System.nanoTime();
+            for (String nickname : nicknames) {
+                store.record(nickname, 10);
+            }
+            double inserts = players / seconds(start);
+            start = System.nanoTime();
+            store.close();
+            long closeMs = millis(start);
+
+            start = System.nanoTime();
+            store = open(kind, dir);
+            store.size(); // h2 отвечает лениво, считаем что открыто когда знает размер
+            long openMs = millis(start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < players; i++) {
+                store.record(nicknames[random.nextInt(players)], 10);
+            }
+            double updates = players / seconds(start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++) {
+                if (store.get(nicknames[random.nextInt(players)]) == null) {
+                    throw new IllegalStateException(kind + ": игрок потерялся");
+                }
+            }
+            double lookupMicros = (System.nanoTime() - start) / 1000.0 / LOOKUPS;
+            store.close();
+
+            System.out.printf("%-9s %9d %12.0f %9d %9d %12.0f %10.2f %10d%n",
+                    kind, players, inserts, closeMs, openMs, updates, lookupMicros, diskSize(dir) / 1024);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static StatsRepository open(String kind, Path dir) throws Exception {
+        switch (kind) {
+            case "mapped":
+                return new MappedStatsStore(dir.resolve(GameStorage.STATS_MAPPED_FILE).toString());
+            case "h2":
+                return new JdbcStatsStore(dir.resolve(GameStorage.STATS_DB).toString());
+            default:
+                return new StatsStore(dir.resolve(GameStorage.STATS_FILE).toString(),
+                        dir.resolve(GameStorage.STATS_LOG_FILE).toString());
+        }
+    }
+
+    private static double seconds(long start) {
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    private static long millis(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static long diskSize(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
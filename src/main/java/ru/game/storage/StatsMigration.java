@@ -0,0 +1,38 @@
+package ru.game.storage;
+
+import java.util.Collection;
+
+/**
+ * перенос статистики из game_stats.json (вместе с журналом) в файл MappedStatsStore
+ * запуск: java ru.game.storage.StatsMigration [json] [журнал] [файл записей]
+ * сервер при этом должен быть остановлен
+ * источник только читается: снимок и журнал остаются как были
+ */
+public class StatsMigration {
+
+    public static void main(String[] args) throws Exception {
+        String jsonFile = args.length > 0 ? args[0] : GameStorage.STATS_FILE;
+        String logFile = args.length > 1 ? args[1] : GameStorage.STATS_LOG_FILE;
+        String mappedFile = args.length > 2 ? args[2] : GameStorage.STATS_MAPPED_FILE;
+
+        // снимок и поверх него журнал, как при запуске StatsStore, но без записи в файлы
+        Collection<GameStorage.PlayerStats> source = StatsStore.read(jsonFile, logFile);
+        MappedStatsStore target = new MappedStatsStore(mappedFile);
+        int skipped = 0;
+        try {
+            for (GameStorage.PlayerStats stats : source) {
+                if (!target.put(stats)) {
+                    skipped++;
+                }
+            }
+            System.out.println("Перенесено игроков: " + (source.size() - skipped) + ", в " + mappedFile
+                    + " теперь " + target.size());
+            if (skipped > 0) {
+                System.err.println("Не перенесено игроков с ником длиннее "
+                        + MappedStatsStore.NICK_BYTES + " байт: " + skipped);
+            }
+        } finally {
+            target.close();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package ru.game.storage;
+
+import java.util.List;
+
+/**
+ * место где сервер хранит статистику игроков
+ * реализации: StatsStore (снимок JSON и журнал), MappedStatsStore (файл записей фиксированного размера)
+ * и JdbcStatsStore (встроенная база H2)
+ * выбирается на сервере через -Dgame.stats=json|mapped|h2, сравнение скорости в StatsBenchmark
+ */
+public interface StatsRepository {
+
+    /**
+     * итог игры: очки прибавляются к сумме игрока, сыгранных игр на одну больше
+     * возвращает новую сумму очков
+     */
+    int record(String nickname, int points);
+
+    /**
+     * статистика игрока или null
+     */
+    GameStorage.PlayerStats get(String nickname);
+
+    /**
+     * копия статистики всех игроков
+     */
+    List<GameStorage.PlayerStats> all();
+
+    int size();
+
+    void close();
+}
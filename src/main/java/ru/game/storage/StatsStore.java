@@ -0,0 +1,464 @@
+package ru.game.storage;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * хранилище статистики игроков
+ * вся статистика в памяти в индексе по нику, изменение это O(1)
+ * и не ждет диска: запись кладется в очередь, отдельный поток
+ * дописывает очередь пачками в конец журнала game_stats.log
+ *
+ * журнал растет, поэтому время от времени поток сохраняет весь индекс
+ * снимком в game_stats.json (формат как у GameStorage) и начинает журнал заново
+ * при запуске читается снимок, потом поверх него журнал
+ *
+ * в записи журнала лежат итоговые значения игрока, а не приращения;
+ * gamesPlayed растет с каждой записью, поэтому при повторе старая запись
+ * не может затереть более новый снимок
+ *
+ * журнал: [магия] и записи [длина int][crc32 int][ник UTF][очки int][игры int]
+ * после каждой пачки один fsync (групповая фиксация): пока идет fsync,
+ * в очереди копятся итоги других игр и уходят следующим одним fsync,
+ * поэтому запись на диск не стоит по fsync на каждого игрока
+ * при запуске журнал читается до первой битой записи, хвост отрезается
+ *
+ * очередь ограничена: если писатель не успевает или диск отказал,
+ * итог остается только в индексе, а писатель потом сохраняет весь индекс
+ * снимком; после ошибки диска он повторяет снимок с растущей паузой
+ */
+public class StatsStore implements StatsRepository {
+    private static final int MAX_BATCH = 1024;                      // записей за один проход писателя
+    private static final long COMPACT_LOG_BYTES = 4 * 1024 * 1024;  // журнал больше - делаем снимок
+    private static final long COMPACT_INTERVAL_MS = 5 * 60 * 1000;  // и не реже чем раз в 5 минут
+    private static final int LOG_MAGIC = 0x47535731;                // "GSW1" в начале журнала
+    private static final int MAX_RECORD = 2 + 65535 + 8;            // writeUTF не длиннее 64К
+    private static final int QUEUE_LIMIT = 64 * 1024;               // записей ждут писателя
+    private static final long RETRY_MIN_MS = 1000;                  // пауза после ошибки диска
+    private static final long RETRY_MAX_MS = 60_000;                // и дольше не растет
+    private static final long CLOSE_WAIT_MS = 10_000;               // остановка не ждет диск дольше
+
+    private final String snapshotFile;
+    private final String logFile;
+    private final Map<String, GameStorage.PlayerStats> index;
+    private final BlockingQueue<Record> pending;
+    private final Thread writer;
+    private DataOutputStream log;         // только поток писателя
+    private FileChannel logChannel;       // для fsync журнала
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(128);
+    private final DataOutputStream recordOut = new DataOutputStream(recordBytes);
+    private final CRC32 crc = new CRC32();
+    private long logBytes;
+    private long lastCompaction;
+    private volatile boolean running;
+    private volatile boolean overflow;    // итог не попал в очередь, нужен снимок
+    private volatile boolean failed;      // диск отказал, итоги только в индексе
+
+    // изменение игрока: итоговые значения после него
+    private static class Record {
+        final String nickname;
+        final int totalScore;
+        final int gamesPlayed;
+
+        Record(String nickname, int totalScore, int gamesPlayed) {
+            this.nickname = nickname;
+            this.totalScore = totalScore;
+            this.gamesPlayed = gamesPlayed;
+        }
+    }
+
+    private static final Record STOP = new Record("", 0, 0);
+
+    public StatsStore(String snapshotFile, String logFile) throws IOException {
+        this.snapshotFile = snapshotFile;
+        this.logFile = logFile;
+        this.index = new ConcurrentHashMap<>();
+        this.pending = new LinkedBlockingQueue<>(QUEUE_LIMIT);
+        load();
+        this.lastCompaction = System.currentTimeMillis();
+        this.running = true;
+        this.writer = new Thread(this::writeLoop, "stats-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // ЗАПИСАТЬ ИТОГ ИГРОКА
+    // очки прибавляются к сумме, сыгранных игр на одну больше
+    // можно вызывать из любого потока, диск не трогает
+    @Override
+    public int record(String nickname, int points) {
+        GameStorage.PlayerStats stats = index.computeIfAbsent(nickname, GameStorage.PlayerStats::new);
+        Record record;
+        synchronized (stats) {
+            stats.setTotalScore(stats.getTotalScore() + points);
+            stats.setGamesPlayed(stats.getGamesPlayed() + 1);
+            record = new Record(nickname, stats.getTotalScore(), stats.getGamesPlayed());
+        }
+        if (failed || !pending.offer(record)) {
+            overflow = true; // итог уже в индексе, его сохранит снимок
+        }
+        return record.totalScore;
+    }
+
+    @Override
+    public GameStorage.PlayerStats get(String nickname) {
+        GameStorage.PlayerStats stats = index.get(nickname);
+        return stats == null ? null : copy(stats);
+    }
+
+    @Override
+    public List<GameStorage.PlayerStats> all() {
+        List<GameStorage.PlayerStats> all = new ArrayList<>(index.size());
+        for (GameStorage.PlayerStats stats : index.values()) {
+            synchronized (stats) {
+                all.add(copy(stats));
+            }
+        }
+        return all;
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    // ОСТАНОВКА
+    // дописываем очередь и сохраняем снимок
+    // вызывается из shutdown hook, поэтому ждет ограниченное время
+    @Override
+    public void close() {
+        if (!running) return;
+        running = false;
+        if (!writer.isAlive()) return;
+        try {
+            if (pending.offer(STOP, CLOSE_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                writer.join(CLOSE_WAIT_MS);
+            }
+            if (writer.isAlive()) {
+                System.err.println("!!! Статистика не успела сохраниться при остановке");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ЗАГРУЗКА: снимок, потом журнал поверх него
+    // снимок который не прочитать не пропускаем: сервер не должен
+    // стартовать с пустой статистикой и затереть ее следующим снимком
+    private void load() throws IOException {
+        GameStorage.readStats(snapshotFile, stats -> index.put(stats.getNickname(), stats));
+        File file = new File(logFile);
+        long size = file.length();
+        if (size < 4) {
+            Files.deleteIfExists(file.toPath()); // не дописан даже заголовок
+            return;
+        }
+        if (!hasChecksums(file)) {
+            // журнал старого формата без контрольных сумм: читаем как есть,
+            // сразу сохраняем снимок и начинаем журнал нового формата
+            int replayed = replayUnchecked(file, index);
+            GameStorage.saveStats(copies(), snapshotFile);
+            Files.delete(file.toPath());
+            System.out.println("Статистика: " + index.size() + " игроков, из старого журнала " + replayed + " записей");
+            return;
+        }
+
+        LogScan scan = scanLog(file, size, index);
+        if (scan.problem != null) {
+            long dropped = size - scan.good;
+            if (scan.corrupt) {
+                // дальше битой записи могут быть целые, файл оставляем для разбора
+                Path copy = Paths.get(logFile + ".corrupt-" + System.currentTimeMillis());
+                Files.copy(file.toPath(), copy);
+                System.err.println("!!! Журнал статистики испорчен: " + scan.problem + ", копия в " + copy);
+            }
+            System.err.println("Журнал статистики: " + scan.problem + ", отрезано " + dropped + " байт");
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(scan.good);
+                raf.getFD().sync();
+            }
+        }
+        System.out.println("Статистика: " + index.size() + " игроков, из журнала " + scan.replayed + " записей");
+    }
+
+    /**
+     * статистика из снимка и журнала только для чтения, файлы не меняются:
+     * битый хвост журнала не отрезается, а просто не читается
+     * (перенос в другое хранилище не должен трогать источник)
+     */
+    public static Collection<GameStorage.PlayerStats> read(String snapshotFile, String logFile) throws IOException {
+        Map<String, GameStorage.PlayerStats> index = new HashMap<>();
+        GameStorage.readStats(snapshotFile, stats -> index.put(stats.getNickname(), stats), false);
+        File file = new File(logFile);
+        long size = file.length();
+        if (size < 4) {
+            return index.values();
+        }
+        if (!hasChecksums(file)) {
+            replayUnchecked(file, index);
+            return index.values();
+        }
+        LogScan scan = scanLog(file, size, index);
+        if (scan.problem != null) {
+            System.err.println("Журнал статистики: " + scan.problem + ", не прочитано "
+                    + (size - scan.good) + " байт");
+        }
+        return index.values();
+    }
+
+    // чем кончилось чтение журнала
+    private static class LogScan {
+        long good = 4;          // конец последней целой записи
+        int replayed;
+        String problem;         // почему журнал прочитан не до конца
+        boolean corrupt;        // битая запись, а не просто недописанный хвост
+    }
+
+    // журнал нового формата начинается с LOG_MAGIC
+    private static boolean hasChecksums(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == LOG_MAGIC;
+        }
+    }
+
+    // ЧТЕНИЕ ЖУРНАЛА до первой битой записи, файл не меняется
+    private static LogScan scanLog(File file, long size, Map<String, GameStorage.PlayerStats> index)
+            throws IOException {
+        LogScan scan = new LogScan();
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            in.readInt(); // заголовок уже проверен
+            byte[] data = new byte[256];
+            while (scan.good < size) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || length > MAX_RECORD) {
+                    scan.problem = "неверная длина записи " + length;
+                    scan.corrupt = true;
+                    break;
+                }
+                if (data.length < length) {
+                    data = new byte[Math.max(length, data.length * 2)];
+                }
+                in.readFully(data, 0, length);
+                crc.reset();
+                crc.update(data, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    scan.problem = "не сходится контрольная сумма";
+                    scan.corrupt = true;
+                    break;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(data, 0, length));
+                apply(index, new Record(record.readUTF(), record.readInt(), record.readInt()));
+                scan.replayed++;
+                scan.good += 8 + length;
+            }
+        } catch (EOFException e) {
+            scan.problem = "последняя запись не дописана";
+        }
+        return scan;
+    }
+
+    // журнал старого формата без контрольных сумм, вернуть число записей
+    private static int replayUnchecked(File file, Map<String, GameStorage.PlayerStats> index) throws IOException {
+        int replayed = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                apply(index, new Record(in.readUTF(), in.readInt(), in.readInt()));
+                replayed++;
+            }
+        } catch (EOFException e) {
+            // конец журнала
+        }
+        return replayed;
+    }
+
+    private static void apply(Map<String, GameStorage.PlayerStats> index, Record record) {
+        GameStorage.PlayerStats stats = index.computeIfAbsent(record.nickname, GameStorage.PlayerStats::new);
+        if (record.gamesPlayed > stats.getGamesPlayed()) {
+            stats.setTotalScore(record.totalScore);
+            stats.setGamesPlayed(record.gamesPlayed);
+        }
+    }
+
+    // ПОТОК ПИСАТЕЛЯ
+    // ждет первую запись, забирает все что накопилось и пишет одним fsync
+    // при ошибке диска не выходит: ждет паузу и сохраняет индекс снимком,
+    // пауза растет до RETRY_MAX_MS, пока диск не заработает
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>(MAX_BATCH);
+        long retryMs = RETRY_MIN_MS;
+        boolean stop = false;
+        while (true) {
+            try {
+                if (failed) {
+                    failed = false; // новые итоги снова идут в очередь
+                    compact();      // в индексе все, что не дошло до журнала
+                    System.err.println("Запись статистики снова работает");
+                    retryMs = RETRY_MIN_MS;
+                } else if (log == null) {
+                    openLog(true);
+                }
+                if (!stop) {
+                    Record first = pending.poll(COMPACT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    if (first != null) {
+                        batch.add(first);
+                        pending.drainTo(batch, MAX_BATCH - 1);
+                    }
+                    stop = writeBatch(batch);
+                    batch.clear();
+                }
+
+                if (stop) {
+                    compact();
+                    log.close();
+                    return;
+                }
+                if (overflow || logBytes > COMPACT_LOG_BYTES
+                        || (logBytes > 4 && System.currentTimeMillis() - lastCompaction > COMPACT_INTERVAL_MS)) {
+                    compact();
+                }
+            } catch (IOException | RuntimeException e) {
+                batch.clear();
+                failed = true;
+                closeLog();
+                if (stop) {
+                    System.err.println("!!! Статистика не сохранена при остановке: " + e);
+                    return;
+                }
+                System.err.println("!!! Ошибка записи статистики: " + e
+                        + ", итоги пока только в памяти, повтор через " + retryMs / 1000 + " с");
+                try {
+                    stop = backoff(retryMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                retryMs = Math.min(retryMs * 2, RETRY_MAX_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // пауза после ошибки, true если за это время пришла остановка
+    // записи из очереди не нужны: их итоги уже в индексе и уйдут снимком
+    private boolean backoff(long ms) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + ms;
+        long left = ms;
+        while (left > 0) {
+            if (pending.poll(left, TimeUnit.MILLISECONDS) == STOP) {
+                return true;
+            }
+            left = deadline - System.currentTimeMillis();
+        }
+        return false;
+    }
+
+    private void closeLog() {
+        if (log == null) return;
+        try {
+            log.close();
+        } catch (IOException e) {
+            // файл все равно начнется заново со снимка
+        }
+        log = null;
+    }
+
+    // true если в пачке была команда остановки
+    private boolean writeBatch(List<Record> batch) throws IOException {
+        boolean stop = false;
+        for (Record record : batch) {
+            if (record == STOP) {
+                stop = true;
+                continue;
+            }
+            recordBytes.reset();
+            recordOut.writeUTF(record.nickname);
+            recordOut.writeInt(record.totalScore);
+            recordOut.writeInt(record.gamesPlayed);
+            crc.reset();
+            crc.update(recordBytes.toByteArray());
+            log.writeInt(recordBytes.size());
+            log.writeInt((int) crc.getValue());
+            recordBytes.writeTo(log);
+            logBytes += 8 + recordBytes.size();
+        }
+        if (batch.size() > (stop ? 1 : 0)) {
+            log.flush();
+            logChannel.force(false); // одна фиксация на всю пачку
+        }
+        return stop;
+    }
+
+    // СНИМОК
+    // индекс уже содержит все записанное в журнал, поэтому после
+    // сохранения снимка журнал можно начать заново
+    private void compact() throws IOException {
+        overflow = false; // итоги пропущенные очередью попадут в этот снимок
+        // снимок уже на диске и подменен целиком (см. GameStorage.saveStats),
+        // только после этого журнал начинается заново
+        GameStorage.saveStats(copies(), snapshotFile);
+
+        closeLog();
+        openLog(false);
+        lastCompaction = System.currentTimeMillis();
+    }
+
+    private void openLog(boolean append) throws IOException {
+        FileOutputStream out = new FileOutputStream(logFile, append);
+        logChannel = out.getChannel();
+        logBytes = logChannel.size();
+        log = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        if (logBytes == 0) {
+            log.writeInt(LOG_MAGIC);
+            log.flush();
+            logChannel.force(false);
+            logBytes = 4;
+        }
+    }
+
+    // обход индекса для снимка: игроки копируются по одному по ходу записи,
+    // весь индекс второй раз в памяти не держим
+    // копия под замком игрока, чтобы очки и число игр были из одной записи
+    private Iterable<GameStorage.PlayerStats> copies() {
+        return () -> new Iterator<GameStorage.PlayerStats>() {
+            private final Iterator<GameStorage.PlayerStats> players = index.values().iterator();
+
+            @Override
+            public boolean hasNext() {
+                return players.hasNext();
+            }
+
+            @Override
+            public GameStorage.PlayerStats next() {
+                GameStorage.PlayerStats stats = players.next();
+                synchronized (stats) {
+                    return copy(stats);
+                }
+            }
+        };
+    }
+
+    private static GameStorage.PlayerStats copy(GameStorage.PlayerStats stats) {
+        GameStorage.PlayerStats copy = new GameStorage.PlayerStats(stats.getNickname());
+        copy.setTotalScore(stats.getTotalScore());
+        copy.setGamesPlayed(stats.getGamesPlayed());
+        return copy;
+    }
+}
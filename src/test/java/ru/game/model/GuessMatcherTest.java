@@ -0,0 +1,106 @@
+package ru.game.model;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * GuessMatcher против полной таблицы Левенштейна на случайных парах
+ * алфавит маленький, чтобы часто попадались слова на расстоянии 1-3,
+ * то есть края полосы и ранний выход
+ */
+public class GuessMatcherTest {
+    private static final String ALPHABET = "АБВЕ";
+
+    @Test
+    public void matchesPlainLevenshtein() {
+        Random random = new Random(42);
+        GuessMatcher matcher = new GuessMatcher();
+        for (int i = 0; i < 200_000; i++) {
+            String word = randomWord(random, 1 + random.nextInt(12));
+            String guess = random.nextInt(4) == 0 ? word : mutate(random, word);
+            assertEquals(word + " / " + guess, expected(word, guess), matcher.match(word, guess));
+        }
+    }
+
+    @Test
+    public void matchesLongWords() {
+        Random random = new Random(7);
+        GuessMatcher matcher = new GuessMatcher();
+        for (int i = 0; i < 2_000; i++) {
+            String word = randomWord(random, GuessMatcher.MAX_GUESS - 4 + random.nextInt(40));
+            String guess = random.nextInt(4) == 0 ? word : mutate(random, word);
+            assertEquals(word + " / " + guess, expected(word, guess), matcher.match(word, guess));
+        }
+    }
+
+    @Test
+    public void normalizesCaseYoAndPunctuation() {
+        GuessMatcher matcher = new GuessMatcher();
+        assertEquals(GuessMatcher.Result.CORRECT, matcher.match("Зубная щётка", "зубная-щетка!"));
+        assertEquals(GuessMatcher.Result.CLOSE, matcher.match("ЩЕТКА", "щотка"));
+        assertEquals(GuessMatcher.Result.MISS, matcher.match("КОТ", "!!!"));
+    }
+
+    // то что должен ответить match: нормализация и полная таблица
+    private static GuessMatcher.Result expected(String word, String guess) {
+        String a = normalized(word);
+        String b = normalized(guess);
+        if (b.isEmpty()) return GuessMatcher.Result.MISS;
+        if (a.equals(b)) return GuessMatcher.Result.CORRECT;
+        return levenshtein(a, b) <= GuessMatcher.closeDistance(a.length())
+                ? GuessMatcher.Result.CLOSE : GuessMatcher.Result.MISS;
+    }
+
+    private static String normalized(String text) {
+        char[] out = new char[text.length()];
+        return new String(out, 0, GuessMatcher.normalize(text, out));
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) d[i][0] = i;
+        for (int j = 0; j <= b.length(); j++) d[0][j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int replace = d[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                d[i][j] = Math.min(replace, Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+    private static String randomWord(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+
+    // до 5 случайных вставок, удалений и замен, иногда пробел или строчная буква
+    private static String mutate(Random random, String word) {
+        StringBuilder sb = new StringBuilder(word);
+        int edits = random.nextInt(6);
+        for (int e = 0; e < edits; e++) {
+            int at = random.nextInt(sb.length() + 1);
+            switch (random.nextInt(4)) {
+                case 0:
+                    sb.insert(at, ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+                    break;
+                case 1:
+                    if (at < sb.length()) sb.deleteCharAt(at);
+                    break;
+                case 2:
+                    if (at < sb.length()) sb.setCharAt(at, ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+                    break;
+                default:
+                    sb.insert(at, random.nextBoolean() ? ' ' : 'а');
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,176 @@
+package ru.game.server;
+
+import org.junit.Test;
+import ru.game.protocol.Protocol;
+import ru.game.storage.GameStorage;
+import ru.game.storage.StatsRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * отрезки сверх лимита склеиваются и уходят по таймеру,
+ * но отмененный штрих этот таймер вернуть не должен
+ * и на отказ в возврате рисующий получает UNDO
+ * текстовый клиент вместо UNDO получает CLEAR и оставшийся рисунок
+ */
+public class MergedStrokeTest {
+    private static final int STROKE_ID = 7;
+
+    @Test
+    public void undoBeforeTimerFlushKeepsStrokeUndone() throws Exception {
+        GameServer server = new GameServer(new MemoryStats(), null);
+        TestClient drawer = new TestClient(server);
+        TestClient guesser = new TestClient(server);
+        server.handleMessage(drawer, Protocol.parse(Protocol.createJoin("рисует")));
+        server.handleMessage(guesser, Protocol.parse(Protocol.createJoin("угадывает", Protocol.FEATURE_BINARY)));
+        waitFor(() -> drawer.getPlayer().isDrawer());
+
+        // начало штриха, потом отрезки пачкой больше ведра DRAW: хвост склеится
+        server.handleMessage(drawer, Protocol.parse(Protocol.STROKE + ":" + STROKE_ID + ",0,10,10,11,10"));
+        for (int x = 11; x < 611; x++) {
+            server.handleMessage(drawer, Protocol.parse(Protocol.createDraw(x % 600, 10, x % 600 + 1, 10, "BLACK")));
+        }
+        server.handleMessage(drawer, Protocol.parse(Protocol.createUndo(STROKE_ID)));
+        Thread.sleep(300); // таймер склеенных успел бы сработать
+
+        List<String> received = guesser.messages();
+        int undo = received.indexOf(Protocol.createUndo(STROKE_ID));
+        assertTrue("UNDO не дошел", undo >= 0);
+        for (String message : received.subList(undo + 1, received.size())) {
+            assertFalse("после UNDO пришел рисунок", message.equals("FRAME"));
+        }
+
+        // отмененное не сбросил поздний кусок, его можно вернуть
+        server.handleMessage(drawer, Protocol.parse(Protocol.createRedo(STROKE_ID)));
+        assertTrue("REDO не вернул штрих", guesser.messages().size() > received.size());
+        assertEquals(Collections.emptyList(), drawer.refusals());
+    }
+
+    @Test
+    public void refusedRedoIsAnsweredWithUndo() throws Exception {
+        GameServer server = new GameServer(new MemoryStats(), null);
+        TestClient drawer = new TestClient(server);
+        TestClient guesser = new TestClient(server);
+        server.handleMessage(drawer, Protocol.parse(Protocol.createJoin("рисует")));
+        server.handleMessage(guesser, Protocol.parse(Protocol.createJoin("угадывает")));
+        waitFor(() -> drawer.getPlayer().isDrawer());
+
+        server.handleMessage(drawer, Protocol.parse(Protocol.STROKE + ":" + STROKE_ID + ",0,10,10,11,10"));
+        server.handleMessage(drawer, Protocol.parse(Protocol.createRedo(STROKE_ID))); // не отменялся
+        assertEquals(Collections.singletonList(Protocol.createUndo(STROKE_ID)), drawer.refusals());
+    }
+
+    @Test
+    public void textPeerGetsClearAndRemainingDrawingInsteadOfUndo() throws Exception {
+        GameServer server = new GameServer(new MemoryStats(), null);
+        TestClient drawer = new TestClient(server);
+        TestClient guesser = new TestClient(server);
+        server.handleMessage(drawer, Protocol.parse(Protocol.createJoin("рисует")));
+        server.handleMessage(guesser, Protocol.parse(Protocol.createJoin("угадывает")));
+        waitFor(() -> drawer.getPlayer().isDrawer());
+
+        server.handleMessage(drawer, Protocol.parse(Protocol.STROKE + ":" + STROKE_ID + ",0,10,10,11,10"));
+        server.handleMessage(drawer, Protocol.parse(Protocol.STROKE + ":" + (STROKE_ID + 1) + ",0,50,50,51,50"));
+        server.handleMessage(drawer, Protocol.parse(Protocol.createUndo(STROKE_ID)));
+
+        List<String> received = guesser.messages();
+        List<String> tail = received.subList(received.size() - 2, received.size());
+        assertEquals(Arrays.asList(Protocol.createClear(),
+                Protocol.createDraw(50, 50, 51, 50, Protocol.colorName(0))), tail);
+        assertFalse(received.contains(Protocol.createUndo(STROKE_ID)));
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("игра не началась", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    // клиент без сокета: отправленное просто запоминается
+    private static class TestClient extends ClientHandler {
+        private final List<String> sent = new ArrayList<>();
+
+        TestClient(GameServer server) {
+            super(server);
+        }
+
+        @Override
+        public synchronized void send(String message) {
+            sent.add(message);
+        }
+
+        @Override
+        public synchronized void sendDrawing(String lines) {
+            Collections.addAll(sent, lines.split("\n"));
+        }
+
+        @Override
+        public synchronized void sendFrame(byte[] frame) {
+            sent.add("FRAME");
+        }
+
+        synchronized List<String> messages() {
+            return new ArrayList<>(sent);
+        }
+
+        // ответы сервера на отказ в отмене или возврате
+        synchronized List<String> refusals() {
+            List<String> result = new ArrayList<>();
+            for (String message : sent) {
+                if (message.startsWith(Protocol.UNDO) || message.startsWith(Protocol.REDO)) {
+                    result.add(message);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        protected void scheduleFlush() {
+        }
+
+        @Override
+        protected boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class MemoryStats implements StatsRepository {
+        @Override
+        public int record(String nickname, int points) {
+            return points;
+        }
+
+        @Override
+        public GameStorage.PlayerStats get(String nickname) {
+            return null;
+        }
+
+        @Override
+        public List<GameStorage.PlayerStats> all() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public int size() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}